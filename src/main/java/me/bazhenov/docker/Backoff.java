@@ -0,0 +1,78 @@
+package me.bazhenov.docker;
+
+import java.util.Objects;
+
+/**
+ * Exponential backoff between consecutive readiness probes.
+ */
+@SuppressWarnings("WeakerAccess")
+public final class Backoff {
+
+	private final long initialDelayMs;
+	private final long maxDelayMs;
+	private final double multiplier;
+
+	/**
+	 * @param initialDelayMs delay after the first failed attempt
+	 * @param maxDelayMs     upper bound of a delay
+	 * @param multiplier     delay multiplier applied after each failed attempt
+	 */
+	public Backoff(long initialDelayMs, long maxDelayMs, double multiplier) {
+		if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs || multiplier < 1)
+			throw new IllegalArgumentException("Invalid backoff: " + initialDelayMs + "ms-" + maxDelayMs + "ms x" +
+				multiplier);
+		this.initialDelayMs = initialDelayMs;
+		this.maxDelayMs = maxDelayMs;
+		this.multiplier = multiplier;
+	}
+
+	/**
+	 * @return fixed delay between attempts
+	 */
+	public static Backoff fixed(long delayMs) {
+		return new Backoff(delayMs, delayMs, 1);
+	}
+
+	/**
+	 * @param attempt number of failed attempts so far (starting from 0)
+	 * @return delay in milliseconds before the next attempt
+	 */
+	public long getDelay(int attempt) {
+		double delay = initialDelayMs * Math.pow(multiplier, attempt);
+		return delay >= maxDelayMs
+			? maxDelayMs
+			: (long) delay;
+	}
+
+	public long getInitialDelayMs() {
+		return initialDelayMs;
+	}
+
+	public long getMaxDelayMs() {
+		return maxDelayMs;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		Backoff backoff = (Backoff) o;
+		return initialDelayMs == backoff.initialDelayMs &&
+			maxDelayMs == backoff.maxDelayMs &&
+			Double.compare(backoff.multiplier, multiplier) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(initialDelayMs, maxDelayMs, multiplier);
+	}
+
+	@Override
+	public String toString() {
+		return initialDelayMs + "ms-" + maxDelayMs + "ms x" + multiplier;
+	}
+}
@@ -0,0 +1,206 @@
+package me.bazhenov.docker;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.Objects.requireNonNull;
+import static me.bazhenov.docker.Docker.doExecute;
+import static me.bazhenov.docker.Docker.runProcess;
+
+/**
+ * Transport implementation which forks {@code docker} command line utility for each operation
+ */
+final class CliTransport implements DockerTransport {
+
+	private static final int STDERR_TAIL_BYTES = 4 * 1024;
+
+	private final String pathToDocker;
+
+	CliTransport(String pathToDocker) {
+		this.pathToDocker = requireNonNull(pathToDocker);
+	}
+
+	@Override
+	public String getImageId(String image) throws IOException, InterruptedException {
+		Docker.ExecutionResult result = doExecute(asList(pathToDocker, "image", "inspect", "--format", "{{.Id}}", image),
+			new HashSet<>(asList(0, 1)));
+		return result.exitCode == 0
+			? result.standardOutput.trim()
+			: null;
+	}
+
+	/**
+	 * Lists all local images using single {@code docker images} call. Images referenced by digest are inspected one by
+	 * one.
+	 */
+	@Override
+	public Set<String> findMissingImages(Collection<String> images) throws IOException, InterruptedException {
+		Set<String> local = new HashSet<>();
+		for (String line : docker("images", "--format", "{{.Repository}}:{{.Tag}}").split("\\n"))
+			local.add(line.trim());
+		Set<String> missing = new LinkedHashSet<>();
+		for (String image : images) {
+			boolean present = image.contains("@")
+				? isImagePresent(image)
+				: local.contains(normalizeImageName(image));
+			if (!present)
+				missing.add(image);
+		}
+		return missing;
+	}
+
+	/**
+	 * @return image name in a {@code repository:tag} form as reported by {@code docker images}
+	 */
+	static String normalizeImageName(String image) {
+		String name = image;
+		if (name.startsWith("docker.io/"))
+			name = name.substring("docker.io/".length());
+		if (name.startsWith("library/"))
+			name = name.substring("library/".length());
+		return name.lastIndexOf(':') > name.lastIndexOf('/')
+			? name
+			: name + ":latest";
+	}
+
+	@Override
+	public void pullImage(String image) throws IOException, InterruptedException {
+		docker("pull", image);
+	}
+
+	@Override
+	public List<String> findContainers(String label, boolean includeStopped) throws IOException, InterruptedException {
+		String output = includeStopped
+			? docker("ps", "-a", "-q", "--no-trunc", "--filter", "label=" + label)
+			: docker("ps", "-q", "--no-trunc", "--filter", "label=" + label);
+		List<String> ids = new ArrayList<>();
+		for (String line : output.split("\n")) {
+			if (!line.trim().isEmpty())
+				ids.add(line.trim());
+		}
+		return ids;
+	}
+
+	@Override
+	public String inspect(String... ids) throws IOException, InterruptedException {
+		return docker("inspect", ids);
+	}
+
+	@Override
+	public String exec(String containerId, String... command) throws IOException, InterruptedException {
+		List<String> args = new ArrayList<>(command.length + 1);
+		args.add(containerId);
+		args.addAll(asList(command));
+		return docker("exec", args.toArray(new String[0]));
+	}
+
+	@Override
+	public String getLogs(String containerId, int tailLines) throws IOException, InterruptedException {
+		Docker.ExecutionResult result = doExecute(asList(pathToDocker, "logs", "--tail", String.valueOf(tailLines),
+			containerId), singleton(0));
+		return result.standardOutput + result.errorOutput;
+	}
+
+	/**
+	 * Several containers are inspected using single {@code docker inspect} process
+	 */
+	@Override
+	public boolean isInspectBatched() {
+		return true;
+	}
+
+	/**
+	 * Each followed container holds a {@code docker logs -f} process
+	 */
+	@Override
+	public boolean isFollowingExpensive() {
+		return true;
+	}
+
+	@Override
+	public InputStream followLogs(String containerId) throws IOException {
+		// Container stderr is written to stderr of docker logs, so both streams are merged to be drained by the reader
+		Process process = new ProcessBuilder(pathToDocker, "logs", "-f", containerId)
+			.redirectErrorStream(true)
+			.start();
+		return destroyOnClose(process);
+	}
+
+	@Override
+	public boolean isNetworkPresent(String network) throws IOException, InterruptedException {
+		int exitCode = doExecute(asList(pathToDocker, "network", "inspect", network), new HashSet<>(asList(0, 1))).exitCode;
+		return exitCode == 0;
+	}
+
+	@Override
+	public void createNetwork(String network) throws IOException, InterruptedException {
+		docker("network", "create", network);
+	}
+
+	@Override
+	public void removeNetwork(String network) throws IOException, InterruptedException {
+		docker("network", "rm", network);
+	}
+
+	@Override
+	public InputStream events(long sinceMillis) throws IOException {
+		Process process = runProcess(asList(pathToDocker, "events",
+			"--since", formatTimestamp(sinceMillis),
+			"--filter", "type=container",
+			"--filter", "label=" + LABEL,
+			"--format", "{{json .}}"));
+		// Stderr is drained, otherwise process could block on a full stderr pipe
+		ContainerLogCapture stderr = new ContainerLogCapture("events-stderr", process.getErrorStream(),
+			STDERR_TAIL_BYTES, null);
+		return destroyOnClose(process, stderr);
+	}
+
+	private static InputStream destroyOnClose(Process process, Closeable... resources) {
+		return new FilterInputStream(process.getInputStream()) {
+
+			@Override
+			public void close() throws IOException {
+				process.destroy();
+				for (Closeable resource : resources)
+					resource.close();
+				super.close();
+			}
+		};
+	}
+
+	/**
+	 * @return timestamp in a format accepted by {@code --since} option ({@code seconds.nanoseconds})
+	 */
+	static String formatTimestamp(long millis) {
+		return String.format("%d.%09d", millis / 1000, (millis % 1000) * 1_000_000);
+	}
+
+	@Override
+	public void removeContainers(Collection<String> ids) throws IOException, InterruptedException {
+		List<String> cmd = new ArrayList<>(asList(pathToDocker, "rm", "-f", "-v"));
+		cmd.addAll(ids);
+		doExecute(cmd, singleton(0));
+	}
+
+	@Override
+	public void close() {
+	}
+
+	private String docker(String command, String... args) throws IOException, InterruptedException {
+		List<String> cmd = new ArrayList<>(args.length + 2);
+		cmd.add(pathToDocker);
+		cmd.add(command);
+		cmd.addAll(asList(args));
+		return doExecute(cmd, singleton(0)).standardOutput;
+	}
+}
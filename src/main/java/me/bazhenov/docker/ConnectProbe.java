@@ -0,0 +1,136 @@
+package me.bazhenov.docker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import static java.nio.channels.SelectionKey.OP_CONNECT;
+import static java.nio.channels.SelectionKey.OP_READ;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Non-blocking TCP connect probe of a single host port.
+ * <p>
+ * Docker userland proxy accepts connections on published ports even if nobody listens inside the container, and then
+ * immediately closes them. So after connection is established probe waits for a short grace period: if connection is
+ * closed by remote side, attempt is considered failed. If data is received or connection is still open when grace
+ * period is over, port is considered reachable. Connection attempt not established within {@link #CONNECT_TIMEOUT_MS}
+ * (eg. SYN is dropped by a firewall) is considered failed as well.
+ * <p>
+ * Probes are driven by a single thread owning the {@link Selector}, so they are not thread safe.
+ */
+final class ConnectProbe implements Closeable {
+
+	static final long GRACE_PERIOD_MS = 100;
+	static final long CONNECT_TIMEOUT_MS = 1000;
+
+	private final InetSocketAddress address;
+	private final Backoff backoff;
+	private final ByteBuffer buffer = ByteBuffer.allocate(64);
+	private SocketChannel channel;
+	private SelectionKey key;
+	private boolean connected;
+	private boolean reachable;
+	private int attempt;
+	private long deadline;
+
+	ConnectProbe(InetSocketAddress address, Backoff backoff) {
+		this.address = requireNonNull(address);
+		this.backoff = requireNonNull(backoff);
+	}
+
+	boolean isReachable() {
+		return reachable;
+	}
+
+	/**
+	 * @return time when {@link #poll(Selector, long)} should be called next time
+	 */
+	long getDeadline() {
+		return reachable
+			? Long.MAX_VALUE
+			: deadline;
+	}
+
+	/**
+	 * Starts new connection attempt if it's time to, or finishes attempt which grace period or connect timeout is over
+	 */
+	void poll(Selector selector, long now) {
+		if (reachable || now < deadline)
+			return;
+		if (channel == null) {
+			try {
+				channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				key = channel.register(selector, OP_CONNECT, this);
+				if (channel.connect(address))
+					onConnected(now);
+				else
+					deadline = now + CONNECT_TIMEOUT_MS;
+			} catch (IOException e) {
+				retry(now);
+			}
+		} else if (connected) {
+			// Connection is still open after grace period
+			reachable = true;
+			close();
+		} else {
+			// Connection is not established in time
+			retry(now);
+		}
+	}
+
+	/**
+	 * Should be called when probe's selection key is selected
+	 */
+	void onSelected(long now) {
+		if (key == null || !key.isValid())
+			return;
+		try {
+			if (key.isConnectable() && channel.finishConnect()) {
+				onConnected(now);
+			} else if (key.isReadable()) {
+				buffer.clear();
+				int read = channel.read(buffer);
+				if (read < 0) {
+					retry(now);
+				} else if (read > 0) {
+					reachable = true;
+					close();
+				}
+			}
+		} catch (IOException e) {
+			retry(now);
+		}
+	}
+
+	private void onConnected(long now) {
+		connected = true;
+		key.interestOps(OP_READ);
+		deadline = now + GRACE_PERIOD_MS;
+	}
+
+	private void retry(long now) {
+		close();
+		deadline = now + backoff.getDelay(attempt++);
+	}
+
+	@Override
+	public void close() {
+		if (key != null)
+			key.cancel();
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+		}
+		key = null;
+		channel = null;
+		connected = false;
+	}
+}
@@ -55,6 +55,12 @@ public @interface Container {
 
 	Volume[] volumes() default {};
 
+	/**
+	 * @return names of containers (declared in the same class or imported using {@link ContainersFrom}) which should be
+	 * ready before this container is started
+	 */
+	String[] dependsOn() default {};
+
 	/**
 	 * @return list of environment variables which will be passed to a process running in the container
 	 */
@@ -71,11 +77,53 @@ public @interface Container {
 	 */
 	boolean removeAfterCompletion() default true;
 
+	/**
+	 * @return should running container from previous test run with the same definition be reused or not. Reused
+	 * containers are not removed after test execution.
+	 */
+	boolean reuse() default false;
+
 	/**
 	 * @return wait for all exposed ports to be open in container
 	 */
 	boolean waitForAllExposedPorts() default true;
 
+	/**
+	 * @return lines which should appear in container output before container is considered ready (eg. MySQL and
+	 * Elasticsearch open ports before they are able to serve requests). Checked in addition to open ports.
+	 */
+	LogPattern[] waitForLog() default {};
+
+	/**
+	 * @return HTTP endpoints which should respond before container is considered ready. Endpoints are probed using
+	 * published host ports.
+	 */
+	HttpCheck[] waitForHttp() default {};
+
+	/**
+	 * @return wait for container {@code HEALTHCHECK} to report {@code healthy} status. Image should define a healthcheck
+	 * (or it should be defined using {@code --health-cmd} option)
+	 */
+	boolean waitForHealthy() default false;
+
+	/**
+	 * @return interval between health checks in milliseconds overriding the one defined by an image. Images usually
+	 * check health every 30 seconds, so shorter interval allows to detect readiness faster
+	 */
+	long healthCheckIntervalMs() default 0;
+
+	/**
+	 * @return maximum time in milliseconds container could take to become ready (including image pull made by the start
+	 * itself, images prefetched for a suite are not counted). Container which is not ready in time is removed and the
+	 * start fails with a description of what container is waiting for. No limit if {@code <= 0}
+	 */
+	long startupTimeoutMs() default 0;
+
+	/**
+	 * @return the way published ports are checked to be open
+	 */
+	PortsCheck portsCheck() default PortsCheck.LISTENING_SOCKETS;
+
 	/**
 	 * @return working directory of a process inside a container
 	 */
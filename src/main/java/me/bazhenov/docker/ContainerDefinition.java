@@ -16,9 +16,18 @@ public final class ContainerDefinition {
 	private final List<String> customOptions = new LinkedList<>();
 	private boolean removeAfterCompletion = true;
 	private boolean waitForAllExposedPortsToBeOpen = true;
+	private boolean reusable;
+	private boolean waitForHealthy;
+	private long healthCheckIntervalMs;
+	private long startupTimeoutMs;
+	private PortsCheck portsCheck = PortsCheck.LISTENING_SOCKETS;
+	private Backoff probeBackoff = new Backoff(50, 1000, 1.5);
 	private String workingDirectory;
 	private String network, networkAlias;
 	private final Collection<VolumeDef> volumes = new ArrayList<>();
+	private final List<ContainerDefinition> dependencies = new ArrayList<>();
+	private final List<LogPatternDef> logPatterns = new ArrayList<>();
+	private final List<HttpCheckDef> httpChecks = new ArrayList<>();
 
 	public ContainerDefinition(String image, String... command) {
 		this.image = requireNonNull(image);
@@ -64,6 +73,93 @@ public final class ContainerDefinition {
 		this.waitForAllExposedPortsToBeOpen = waitForAllExposedPortsToBeOpen;
 	}
 
+	public boolean isWaitForHealthy() {
+		return waitForHealthy;
+	}
+
+	/**
+	 * @param waitForHealthy if {@code true} container is not considered ready until its {@code HEALTHCHECK} reports
+	 *                       {@code healthy} status. Container becoming {@code unhealthy} fails the start
+	 */
+	public void setWaitForHealthy(boolean waitForHealthy) {
+		this.waitForHealthy = waitForHealthy;
+	}
+
+	public long getHealthCheckIntervalMs() {
+		return healthCheckIntervalMs;
+	}
+
+	/**
+	 * @param healthCheckIntervalMs overrides interval between health checks defined by an image (eg. to detect readiness
+	 *                              in sub-second time). Image defaults are used if {@code <= 0}
+	 */
+	public void setHealthCheckIntervalMs(long healthCheckIntervalMs) {
+		this.healthCheckIntervalMs = healthCheckIntervalMs;
+	}
+
+	public long getStartupTimeoutMs() {
+		return startupTimeoutMs;
+	}
+
+	/**
+	 * @param startupTimeoutMs maximum time container could take to become ready (including image pull made by the start
+	 *                         itself, images prefetched for a suite are not counted). Start fails if container is not
+	 *                         ready in time. No limit if {@code <= 0}
+	 */
+	public void setStartupTimeoutMs(long startupTimeoutMs) {
+		this.startupTimeoutMs = startupTimeoutMs;
+	}
+
+	public PortsCheck getPortsCheck() {
+		return portsCheck;
+	}
+
+	/**
+	 * @param portsCheck the way published ports are checked to be open
+	 */
+	public void setPortsCheck(PortsCheck portsCheck) {
+		this.portsCheck = requireNonNull(portsCheck);
+	}
+
+	public Backoff getProbeBackoff() {
+		return probeBackoff;
+	}
+
+	/**
+	 * @param probeBackoff backoff between consecutive failed probes of a container (eg. connects to host port when
+	 *                     {@link PortsCheck#HOST_CONNECT} is used)
+	 */
+	public void setProbeBackoff(Backoff probeBackoff) {
+		this.probeBackoff = requireNonNull(probeBackoff);
+	}
+
+	/**
+	 * @param pattern line which should appear in container output before container is considered ready. Checked in
+	 *                addition to open ports (see {@link #setWaitForAllExposedPortsToBeOpen(boolean)})
+	 */
+	public void addLogPattern(LogPatternDef pattern) {
+		requireNonNull(pattern);
+		logPatterns.add(pattern);
+	}
+
+	public List<LogPatternDef> getLogPatterns() {
+		return logPatterns;
+	}
+
+	/**
+	 * @param check HTTP endpoint which should respond before container is considered ready. Endpoint is probed using
+	 *              published host port after all the other checks are passed. Delay between attempts is defined by
+	 *              {@link #setProbeBackoff(Backoff)}
+	 */
+	public void addHttpCheck(HttpCheckDef check) {
+		requireNonNull(check);
+		httpChecks.add(check);
+	}
+
+	public List<HttpCheckDef> getHttpChecks() {
+		return httpChecks;
+	}
+
 	public List<String> getCommand() {
 		return command;
 	}
@@ -84,6 +180,19 @@ public final class ContainerDefinition {
 		return removeAfterCompletion;
 	}
 
+	public boolean isReusable() {
+		return reusable;
+	}
+
+	/**
+	 * @param reusable if {@code true} running container started by previous test run with the same definition is
+	 *                 adopted instead of starting a new one. Reusable container is not removed after test run.
+	 * @see ReusableContainers
+	 */
+	public void setReusable(boolean reusable) {
+		this.reusable = reusable;
+	}
+
 	public void setWorkingDirectory(String workingDirectory) {
 		this.workingDirectory = workingDirectory;
 	}
@@ -128,6 +237,24 @@ public final class ContainerDefinition {
 		return networkAlias;
 	}
 
+	/**
+	 * @param dependency container which should be ready before this container is started
+	 */
+	public void addDependency(ContainerDefinition dependency) {
+		requireNonNull(dependency);
+		dependencies.add(dependency);
+	}
+
+	/**
+	 * Dependencies (regardless of their order) are taken into account by {@link #equals(Object)} and
+	 * {@link #hashCode()}, so containers waiting for different dependencies are never shared.
+	 *
+	 * @return containers which should be ready before this container is started
+	 */
+	public List<ContainerDefinition> getDependencies() {
+		return dependencies;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -135,18 +262,30 @@ public final class ContainerDefinition {
 		ContainerDefinition that = (ContainerDefinition) o;
 		return removeAfterCompletion == that.removeAfterCompletion &&
 			waitForAllExposedPortsToBeOpen == that.waitForAllExposedPortsToBeOpen &&
+			reusable == that.reusable &&
+			waitForHealthy == that.waitForHealthy &&
+			healthCheckIntervalMs == that.healthCheckIntervalMs &&
+			startupTimeoutMs == that.startupTimeoutMs &&
+			portsCheck == that.portsCheck &&
+			Objects.equals(probeBackoff, that.probeBackoff) &&
+			Objects.equals(logPatterns, that.logPatterns) &&
+			Objects.equals(httpChecks, that.httpChecks) &&
 			Objects.equals(image, that.image) &&
 			Objects.equals(command, that.command) &&
 			Objects.equals(publishedPorts, that.publishedPorts) &&
 			Objects.equals(environment, that.environment) &&
 			Objects.equals(workingDirectory, that.workingDirectory) &&
 			Objects.equals(volumes, that.volumes) &&
-			Objects.equals(customOptions, that.customOptions);
+			Objects.equals(network, that.network) &&
+			Objects.equals(networkAlias, that.networkAlias) &&
+			Objects.equals(customOptions, that.customOptions) &&
+			new HashSet<>(dependencies).equals(new HashSet<>(that.dependencies));
 	}
 
 	@Override
 	public int hashCode() {
 		return Objects.hash(image, command, publishedPorts, environment, removeAfterCompletion, waitForAllExposedPortsToBeOpen,
-			workingDirectory, volumes, customOptions);
+			reusable, waitForHealthy, healthCheckIntervalMs, startupTimeoutMs, portsCheck, probeBackoff, logPatterns,
+			httpChecks, workingDirectory, volumes, network, networkAlias, customOptions, new HashSet<>(dependencies));
 	}
 }
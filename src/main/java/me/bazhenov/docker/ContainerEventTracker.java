@@ -0,0 +1,241 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Demultiplexes single stream of Docker container events into per-container state futures.
+ * <p>
+ * Only containers registered using {@link #track(String)} are tracked. Stream contains events of all the containers
+ * labeled by this library (including ones started by other processes), so events of unknown containers are kept only in
+ * a small buffer of recent events. This way there is no race between container start and the moment it is registered.
+ * Removed containers are remembered for a while, so late lookups fail instead of waiting forever.
+ */
+final class ContainerEventTracker implements Closeable {
+
+	private static final Logger log = getLogger(ContainerEventTracker.class);
+	private static final ObjectMapper json = new ObjectMapper();
+	private static final String HEALTH_STATUS = "health_status:";
+	private static final int MAX_UNTRACKED = 64;
+	private static final int MAX_REMOVED = 1024;
+
+	private final InputStream stream;
+	private final Map<String, ContainerState> containers = new ConcurrentHashMap<>();
+	private final Map<String, ContainerState> untracked = new BoundedMap<>(MAX_UNTRACKED);
+	private final Map<String, Boolean> removed = new BoundedMap<>(MAX_REMOVED);
+	private final CompletableFuture<Void> terminated = new CompletableFuture<>();
+	private volatile boolean active = true;
+	private volatile Consumer<String> listener;
+
+	ContainerEventTracker(InputStream stream) {
+		this.stream = requireNonNull(stream);
+		Thread reader = new Thread(this::readEvents, "docker-events");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	/**
+	 * Subscribes to container events. Events are requested starting slightly in the past, so events generated while
+	 * subscription is being established are not lost.
+	 */
+	static ContainerEventTracker subscribe(DockerTransport transport) throws IOException, InterruptedException {
+		return new ContainerEventTracker(transport.events(System.currentTimeMillis() - 1000));
+	}
+
+	/**
+	 * @return {@code false} if event stream was closed. In this case caller should fallback to polling
+	 */
+	boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * @return future completed when the thread reading events is stopped (eg. after {@link #close()})
+	 */
+	CompletableFuture<Void> terminated() {
+		return terminated;
+	}
+
+	/**
+	 * Starts tracking of a container. Events received shortly before the registration are taken into account.
+	 *
+	 * @param id full container id
+	 */
+	synchronized void track(String id) {
+		if (containers.containsKey(id))
+			return;
+		ContainerState state = untracked.remove(id);
+		containers.put(id, state == null ? new ContainerState() : state);
+	}
+
+	/**
+	 * @return future completed when container is started
+	 */
+	CompletableFuture<Void> started(String id) {
+		return state(id).started;
+	}
+
+	/**
+	 * @return future completed with exit code when container is stopped
+	 */
+	CompletableFuture<Integer> exited(String id) {
+		return state(id).exited;
+	}
+
+	/**
+	 * @return future completed when health status of a container is resolved: {@code true} if container became
+	 * healthy, {@code false} if unhealthy
+	 */
+	CompletableFuture<Boolean> healthy(String id) {
+		return state(id).healthy;
+	}
+
+	/**
+	 * @param listener callback to be called with container id after each event of the container
+	 */
+	void setListener(Consumer<String> listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * @return state of a tracked container. For a container not tracked (or already removed) state with failed futures
+	 * is returned
+	 */
+	private ContainerState state(String id) {
+		ContainerState state = containers.get(id);
+		if (state != null)
+			return state;
+		synchronized (this) {
+			return removed.containsKey(id)
+				? new ContainerState(new IllegalStateException("Container " + id + " is removed"))
+				: new ContainerState(new IllegalStateException("Container " + id + " is not tracked"));
+		}
+	}
+
+	/**
+	 * @return state events of a container should be applied to
+	 */
+	private synchronized ContainerState eventTarget(String id) {
+		ContainerState state = containers.get(id);
+		return state != null
+			? state
+			: untracked.computeIfAbsent(id, k -> new ContainerState());
+	}
+
+	private synchronized ContainerState remove(String id) {
+		removed.put(id, true);
+		ContainerState state = containers.remove(id);
+		return state != null
+			? state
+			: untracked.remove(id);
+	}
+
+	void onEvent(JsonNode event) {
+		String id = event.at("/Actor/ID").asText(event.path("id").asText());
+		String action = event.path("Action").asText(event.path("status").asText());
+		if (id.isEmpty())
+			return;
+		if (action.startsWith(HEALTH_STATUS)) {
+			// Transitional "starting" status is not interesting
+			String status = action.substring(HEALTH_STATUS.length()).trim();
+			if (!"healthy".equals(status) && !"unhealthy".equals(status))
+				return;
+			eventTarget(id).healthy.complete("healthy".equals(status));
+		} else {
+			switch (action) {
+				case "start":
+					eventTarget(id).started.complete(null);
+					break;
+				case "die":
+					eventTarget(id).exited.complete(event.at("/Actor/Attributes/exitCode").asInt(-1));
+					break;
+				case "destroy":
+					ContainerState state = remove(id);
+					if (state != null) {
+						state.exited.complete(-1);
+						state.healthy.complete(false);
+					}
+					break;
+				default:
+					return;
+			}
+		}
+		Consumer<String> l = listener;
+		if (l != null)
+			l.accept(id);
+	}
+
+	private void readEvents() {
+		try (MappingIterator<JsonNode> events = json.readerFor(JsonNode.class).readValues(stream)) {
+			while (events.hasNextValue()) {
+				onEvent(events.nextValue());
+			}
+		} catch (IOException | RuntimeException e) {
+			if (active)
+				log.debug("Docker events stream is closed", e);
+		} finally {
+			active = false;
+			terminated.complete(null);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		active = false;
+		stream.close();
+		synchronized (this) {
+			containers.clear();
+			untracked.clear();
+			removed.clear();
+		}
+	}
+
+	private static final class ContainerState {
+
+		final CompletableFuture<Void> started = new CompletableFuture<>();
+		final CompletableFuture<Integer> exited = new CompletableFuture<>();
+		final CompletableFuture<Boolean> healthy = new CompletableFuture<>();
+
+		ContainerState() {
+		}
+
+		ContainerState(Throwable failure) {
+			started.completeExceptionally(failure);
+			exited.completeExceptionally(failure);
+			healthy.completeExceptionally(failure);
+		}
+	}
+
+	/**
+	 * Map keeping only the most recently added entries
+	 */
+	private static final class BoundedMap<K, V> extends LinkedHashMap<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int maxSize;
+
+		BoundedMap(int maxSize) {
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+			return size() > maxSize;
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package me.bazhenov.docker;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Captures output of a single container on a background thread.
+ * <p>
+ * Only the last {@code capacity} bytes of output are kept in memory (ring buffer), so memory consumption is bounded
+ * regardless of how verbose container is. Optionally full output is written to a spill file as well.
+ */
+final class ContainerLogCapture implements Closeable {
+
+	static final String BUFFER_SIZE_PROPERTY = "docker.logs.bufferSize";
+	static final String DIRECTORY_PROPERTY = "docker.logs.directory";
+	static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final Logger log = getLogger(ContainerLogCapture.class);
+
+	private final InputStream stream;
+	private final byte[] buffer;
+	private final Path spillFile;
+	private final LogMatcher matcher;
+	private final Thread reader;
+	private long written;
+
+	/**
+	 * @param containerId container id
+	 * @param stream      container output stream (see {@link DockerTransport#followLogs(String)})
+	 * @param capacity    size of a ring buffer in bytes
+	 * @param spillFile   file full output should be written to or {@code null}
+	 */
+	ContainerLogCapture(String containerId, InputStream stream, int capacity, Path spillFile) {
+		this(containerId, stream, capacity, spillFile, null);
+	}
+
+	/**
+	 * @param matcher matcher output is fed to as it arrives or {@code null}
+	 */
+	ContainerLogCapture(String containerId, InputStream stream, int capacity, Path spillFile, LogMatcher matcher) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("Capacity should be positive: " + capacity);
+		this.stream = requireNonNull(stream);
+		this.buffer = new byte[capacity];
+		this.spillFile = spillFile;
+		this.matcher = matcher;
+		String shortId = containerId.length() > 12 ? containerId.substring(0, 12) : containerId;
+		reader = new Thread(this::read, "docker-logs-" + shortId);
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void read() {
+		byte[] chunk = new byte[8192];
+		try (InputStream in = stream; OutputStream spill = spillFile == null ? null : openSpillFile()) {
+			int read;
+			while ((read = in.read(chunk)) >= 0) {
+				append(chunk, 0, read);
+				if (matcher != null)
+					matcher.feed(chunk, 0, read);
+				if (spill != null)
+					spill.write(chunk, 0, read);
+			}
+		} catch (IOException e) {
+			// Stream is closed on container removal
+			log.trace("Log stream is closed", e);
+		} finally {
+			if (matcher != null)
+				matcher.finish();
+		}
+	}
+
+	private OutputStream openSpillFile() throws IOException {
+		Files.createDirectories(spillFile.toAbsolutePath().getParent());
+		return Files.newOutputStream(spillFile);
+	}
+
+	synchronized void append(byte[] chunk, int offset, int length) {
+		if (length >= buffer.length) {
+			// Only the last part of a chunk fits, the oldest byte should end up at the write position
+			written += length;
+			int position = (int) (written % buffer.length);
+			int from = offset + length - buffer.length;
+			System.arraycopy(chunk, from, buffer, position, buffer.length - position);
+			System.arraycopy(chunk, from + buffer.length - position, buffer, 0, position);
+			return;
+		}
+		int position = (int) (written % buffer.length);
+		int head = Math.min(length, buffer.length - position);
+		System.arraycopy(chunk, offset, buffer, position, head);
+		System.arraycopy(chunk, offset + head, buffer, 0, length - head);
+		written += length;
+	}
+
+	/**
+	 * @return output kept in the buffer. If part of the output was evicted, incomplete first line is dropped.
+	 */
+	synchronized String tail() {
+		if (written <= buffer.length)
+			return new String(buffer, 0, (int) written, UTF_8);
+		int position = (int) (written % buffer.length);
+		byte[] ordered = new byte[buffer.length];
+		System.arraycopy(buffer, position, ordered, 0, buffer.length - position);
+		System.arraycopy(buffer, 0, ordered, buffer.length - position, position);
+		int start = 0;
+		while (start < ordered.length && ordered[start] != '\n')
+			start++;
+		return start < ordered.length
+			? new String(ordered, start + 1, ordered.length - start - 1, UTF_8)
+			: new String(ordered, UTF_8);
+	}
+
+	/**
+	 * @return total number of bytes captured
+	 */
+	synchronized long getWrittenBytes() {
+		return written;
+	}
+
+	/**
+	 * Waits for a container output stream to be fully read
+	 */
+	void awaitCompletion(long timeoutMs) throws InterruptedException {
+		reader.join(timeoutMs);
+	}
+
+	@Override
+	public void close() {
+		try {
+			stream.close();
+		} catch (IOException e) {
+			log.trace("Unable to close log stream", e);
+		}
+	}
+}
@@ -3,9 +3,11 @@ package me.bazhenov.docker;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static java.util.Collections.newSetFromMap;
 import static java.util.Collections.unmodifiableList;
 import static java.util.Collections.unmodifiableMap;
 import static java.util.Objects.requireNonNull;
+import static java.util.stream.Collectors.joining;
 
 /**
  * Set of containers accessible from given test case
@@ -20,6 +22,55 @@ final class ContainerNamespace {
 		ensureUniqueNames(defs, importNamespaces);
 		this.defs = unmodifiableMap(requireNonNull(defs));
 		this.importNamespaces = unmodifiableList(requireNonNull(importNamespaces));
+		ensureNoCycles();
+	}
+
+	/**
+	 * Checks that container dependencies form a directed acyclic graph
+	 */
+	private void ensureNoCycles() {
+		Set<ContainerDefinition> visited = newSetFromMap(new IdentityHashMap<>());
+		for (ContainerDefinition definition : defs.values())
+			visit(definition, new ArrayList<>(), visited);
+	}
+
+	private void visit(ContainerDefinition definition, List<ContainerDefinition> path,
+	                   Set<ContainerDefinition> visited) {
+		for (int i = 0; i < path.size(); i++) {
+			if (path.get(i) == definition) {
+				String cycle = path.subList(i, path.size()).stream()
+					.map(this::getName)
+					.collect(joining(" -> "));
+				throw new IllegalArgumentException("Cyclic dependency between containers: " + cycle + " -> " +
+					getName(definition));
+			}
+		}
+		if (!visited.add(definition))
+			return;
+		path.add(definition);
+		for (ContainerDefinition dependency : definition.getDependencies())
+			visit(dependency, path, visited);
+		path.remove(path.size() - 1);
+	}
+
+	private String getName(ContainerDefinition definition) {
+		String name = findName(definition);
+		return name == null
+			? definition.getImage()
+			: name;
+	}
+
+	private String findName(ContainerDefinition definition) {
+		for (Map.Entry<String, ContainerDefinition> entry : defs.entrySet()) {
+			if (entry.getValue() == definition)
+				return entry.getKey();
+		}
+		for (ContainerNamespace namespace : importNamespaces) {
+			String name = namespace.findName(definition);
+			if (name != null)
+				return name;
+		}
+		return null;
 	}
 
 	private static void ensureUniqueNames(Map<String, ContainerDefinition> defs, List<ContainerNamespace> namespaces) {
@@ -58,6 +109,17 @@ final class ContainerNamespace {
 		return defs.values();
 	}
 
+	/**
+	 * @return definitions of this namespace (without imported ones) by container name
+	 */
+	Map<String, ContainerDefinition> getNamedDefinitions() {
+		return defs;
+	}
+
+	List<ContainerNamespace> getImportNamespaces() {
+		return importNamespaces;
+	}
+
 	private Set<String> getDefinedNames() {
 		return defs.keySet();
 	}
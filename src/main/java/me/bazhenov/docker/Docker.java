@@ -1,25 +1,38 @@
 package me.bazhenov.docker;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.slf4j.Logger;
 
 import java.io.*;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
-import static java.io.File.createTempFile;
-import static java.lang.Integer.parseInt;
 import static java.lang.System.currentTimeMillis;
 import static java.lang.Thread.currentThread;
-import static java.lang.Thread.sleep;
-import static java.nio.file.Files.readAllLines;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.ConcurrentHashMap.newKeySet;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static me.bazhenov.docker.StartupHistory.Phase.READY;
+import static me.bazhenov.docker.StartupHistory.Phase.RUN;
+import static me.bazhenov.docker.StartupProgress.Phase.HTTP;
+import static me.bazhenov.docker.StartupProgress.Phase.IMAGE;
+import static me.bazhenov.docker.StartupProgress.Phase.READINESS;
 import static org.slf4j.LoggerFactory.getLogger;
 import static org.testng.util.Strings.isNullOrEmpty;
 
@@ -31,21 +44,67 @@ import static org.testng.util.Strings.isNullOrEmpty;
  * <li>{@link #executeAndReturnOutput(ContainerDefinition)};</li>
  * <li>{@link #start(ContainerDefinition)}.</li>
  * </ul>
+ * Most of the operations have asynchronous counterparts returning {@link CompletableFuture}
+ * (eg. {@link #startAsync(ContainerDefinition)}).
  */
 @SuppressWarnings("WeakerAccess")
 public final class Docker implements Closeable {
 
 	private static final Logger log = getLogger(Docker.class);
-	private static final ObjectMapper jsonReader = new ObjectMapper();
+	private static final int LOGS_TAIL_LINES = 100;
+	private static final int STDERR_TAIL_BYTES = 16 * 1024;
+	private static final int DIAGNOSTIC_LOG_LINES = 20;
+	private static final int REMOVAL_BATCH_SIZE = 4;
+	private static final int MAX_PARALLEL_REMOVALS = 4;
 
 	List<String> tcpFiles = asList("/proc/self/net/tcp", "/proc/self/net/tcp6");
 
 	private final String pathToDocker;
+	private final DockerTransport transport;
 	private final Set<String> containersToRemove = newKeySet();
 	private final Set<String> networks = newKeySet();
+	private final Set<String> knownNetworks = newKeySet();
+	private final Set<String> persistentNetworks = newKeySet();
+	private final ReusableContainers reusable;
+	private final Map<String, ContainerLogCapture> logs = new ConcurrentHashMap<>();
+	private final Set<StartupProgress> starting = newKeySet();
+	private final Set<CompletableFuture<Void>> removals = newKeySet();
+	private final Map<String, CompletableFuture<Void>> networkRemovals = new ConcurrentHashMap<>();
+	private final PendingTeardowns pendingTeardowns = PendingTeardowns.global();
+	private final InspectCoalescer inspections;
+	private final InspectCoalescer stateInspections;
+	private final int logsBufferSize = Integer.getInteger(ContainerLogCapture.BUFFER_SIZE_PROPERTY,
+		ContainerLogCapture.DEFAULT_BUFFER_SIZE);
+	private final String logsDirectory = System.getProperty(ContainerLogCapture.DIRECTORY_PROPERTY);
+	private final ReadinessMonitor readiness;
+	private final String portsHost = publishedPortsHost(System.getenv("DOCKER_HOST"));
+	private final StartupHistory history = StartupHistory.createDefault();
+	private ContainerEventTracker events;
+	private ExecutorService executor;
+	private ScheduledExecutorService scheduler;
+	private ExecutorService teardown;
 
-	public Docker(String pathToDocker) {
+	/**
+	 * @param pathToDocker path to the {@code docker} utility
+	 * @param transport    transport used to inspect and manage containers
+	 */
+	public Docker(String pathToDocker, DockerTransport transport) {
 		this.pathToDocker = requireNonNull(pathToDocker);
+		this.transport = requireNonNull(transport);
+		this.readiness = new ReadinessMonitor(transport, portsHost);
+		this.reusable = new ReusableContainers(transport);
+		this.inspections = new InspectCoalescer(transport, InspectExtractor.ALL, task -> executor().execute(task));
+		// State and published ports are checked often, so only the fields needed are parsed
+		this.stateInspections = new InspectCoalescer(transport, InspectExtractor.STATE, task -> executor().execute(task));
+	}
+
+	/**
+	 * Creates Docker facility using the best transport available (see {@link DockerTransport#detect(String)})
+	 *
+	 * @param pathToDocker path to the {@code docker} utility
+	 */
+	public Docker(String pathToDocker) {
+		this(pathToDocker, DockerTransport.detect(pathToDocker));
 	}
 
 	public Docker() {
@@ -56,7 +115,7 @@ public final class Docker implements Closeable {
 	 * Runs given container wait for it to finish and then return its stdout.
 	 * <p>
 	 * Be careful to use this method when large output is generated by a container. This method is fully buffered, so
-	 * OOM can possibly be generated.
+	 * OOM can possibly be generated. Use {@link #executeAndStreamOutput(ContainerDefinition, StdoutHandler)} instead.
 	 *
 	 * @param definition definition of a container
 	 * @return stdout of a container
@@ -69,6 +128,131 @@ public final class Docker implements Closeable {
 		return doExecuteAndGetFullOutput(cmd);
 	}
 
+	/**
+	 * Runs given container and passes its stdout to a handler while container is running. Stderr is drained
+	 * concurrently. Only the tail of stderr is kept and logged when container finished with non-zero exit code.
+	 *
+	 * @param definition definition of a container
+	 * @param handler    stdout handler. Output not consumed by a handler is discarded
+	 * @return exit code of a container
+	 * @throws IOException          if there is error while starting container or handler failed
+	 * @throws InterruptedException when thread was interrupted
+	 */
+	public int executeAndStreamOutput(ContainerDefinition definition, StdoutHandler handler)
+		throws IOException, InterruptedException {
+		return doExecuteAndStream(prepareDockerCommand(definition), handler);
+	}
+
+	/**
+	 * Runs given container and copies its stdout to a given stream
+	 *
+	 * @see #executeAndStreamOutput(ContainerDefinition, StdoutHandler)
+	 */
+	public int executeAndStreamOutput(ContainerDefinition definition, OutputStream stdout)
+		throws IOException, InterruptedException {
+		return executeAndStreamOutput(definition, in -> copy(in, stdout));
+	}
+
+	/**
+	 * Runs given container and writes its stdout to a given file
+	 *
+	 * @see #executeAndStreamOutput(ContainerDefinition, StdoutHandler)
+	 */
+	public int executeAndStreamOutput(ContainerDefinition definition, Path target)
+		throws IOException, InterruptedException {
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+			return executeAndStreamOutput(definition, out);
+		}
+	}
+
+	/**
+	 * Runs given container and passes each line of its stdout (UTF-8) to a given consumer
+	 *
+	 * @see #executeAndStreamOutput(ContainerDefinition, StdoutHandler)
+	 */
+	public int executeAndStreamLines(ContainerDefinition definition, Consumer<String> lines)
+		throws IOException, InterruptedException {
+		return executeAndStreamOutput(definition, in -> {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null)
+				lines.accept(line);
+		});
+	}
+
+	/**
+	 * Handler of a container stdout
+	 */
+	@FunctionalInterface
+	public interface StdoutHandler {
+
+		/**
+		 * @param stdout container stdout. Stream is closed after handler returns
+		 */
+		void handle(InputStream stdout) throws IOException;
+	}
+
+	static int doExecuteAndStream(List<String> cmd, StdoutHandler handler) throws IOException, InterruptedException {
+		Process process = runProcess(cmd);
+		ContainerLogCapture stderr = new ContainerLogCapture("stderr", process.getErrorStream(), STDERR_TAIL_BYTES, null);
+		try (InputStream stdout = process.getInputStream()) {
+			handler.handle(stdout);
+			// Process could block on a full pipe if handler didn't read the whole output
+			copy(stdout, null);
+		} catch (IOException | RuntimeException e) {
+			process.destroy();
+			throw e;
+		}
+		int exitCode;
+		try {
+			exitCode = process.waitFor();
+		} catch (InterruptedException e) {
+			process.destroy();
+			throw e;
+		}
+		stderr.awaitCompletion(1000);
+		if (exitCode != 0) {
+			log.warn("Process finished with exit code {}: {}\nStderr: {}", exitCode, prettyFormatCommand(cmd),
+				stderr.tail());
+		}
+		return exitCode;
+	}
+
+	/**
+	 * @param out target stream or {@code null} if input should be discarded
+	 */
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			if (out != null)
+				out.write(buffer, 0, read);
+		}
+		if (out != null)
+			out.flush();
+	}
+
+	/**
+	 * Pulls images which are not available locally. Images are pulled in parallel, each image is pulled once.
+	 *
+	 * @param images images needed by containers
+	 * @return pull time in ms of each image pulled
+	 * @throws IOException          if there is error while checking local images
+	 * @throws InterruptedException when thread was interrupted
+	 */
+	public Map<String, Long> prefetchImages(Collection<String> images) throws IOException, InterruptedException {
+		return new ImagePrefetcher(transport).prefetch(images);
+	}
+
+	/**
+	 * Pulls images which are not available locally without blocking calling thread
+	 *
+	 * @see #prefetchImages(Collection)
+	 */
+	public CompletableFuture<Map<String, Long>> prefetchImagesAsync(Collection<String> images) {
+		return async(() -> prefetchImages(images));
+	}
+
 	/**
 	 * Starts a container in background-mode
 	 *
@@ -78,91 +262,516 @@ public final class Docker implements Closeable {
 	 * @throws InterruptedException when thread was interrupted
 	 */
 	public String start(ContainerDefinition definition) throws IOException, InterruptedException {
-		ensureImageAvailable(definition.getImage());
-		createNetwork(definition.getNetwork());
-		File cidFile = createTempFile("docker", "cid");
-		cidFile.deleteOnExit();
-		// Docker requires cid-file to be not present at the moment of starting a container
-		if (!cidFile.delete()) {
-			throw new IllegalStateException("Docker requires cid-file to be not present at the moment of starting a container");
+		return await(startAsync(definition));
+	}
+
+	/**
+	 * Starts a container in background-mode without blocking calling thread.
+	 * <p>
+	 * {@code docker run} is executed by a Docker facility thread, while readiness of a container is awaited without
+	 * holding any thread. Cancelling returned future stops waiting for readiness and removes the container. Container
+	 * which failed to become ready (or is not ready in {@link ContainerDefinition#getStartupTimeoutMs()}) is removed as
+	 * well.
+	 *
+	 * @param definition container definition
+	 * @return future completed with container id when container is ready
+	 */
+	public CompletableFuture<String> startAsync(ContainerDefinition definition) {
+		return startAsync(definition, new CompletableFuture<>());
+	}
+
+	/**
+	 * @param launched future completed when the launch phase ({@code docker run}) is finished, successfully or not.
+	 *                 Container is awaited to become ready after that
+	 * @see #startAsync(ContainerDefinition)
+	 */
+	CompletableFuture<String> startAsync(ContainerDefinition definition, CompletableFuture<Void> launched) {
+		StartupProgress progress = new StartupProgress(definition);
+		starting.add(progress);
+		CompletableFuture<CompletableFuture<String>> run = async(() -> launch(definition, progress));
+		run.whenComplete((ready, e) -> launched.complete(null));
+		CompletableFuture<String> result = run.thenCompose(identity());
+		ScheduledFuture<?> deadline = definition.getStartupTimeoutMs() > 0
+			? schedule(() -> expire(result, progress), definition.getStartupTimeoutMs())
+			: null;
+		result.whenComplete((cid, e) -> {
+			starting.remove(progress);
+			if (deadline != null)
+				deadline.cancel(false);
+			// docker run is not interrupted, otherwise container would be created, but its id would be lost
+			if (e != null)
+				run.thenAccept(ready -> ready.cancel(false));
+		});
+		return result;
+	}
+
+	/**
+	 * Fails a start which is not finished in time. Snapshot is taken before the container is removed
+	 */
+	private void expire(CompletableFuture<String> start, StartupProgress progress) {
+		if (start.isDone())
+			return;
+		ContainerDefinition definition = progress.getDefinition();
+		start.completeExceptionally(new IllegalStateException("Container of image " + definition.getImage() +
+			" is not ready in " + definition.getStartupTimeoutMs() + "ms\n" + describe(progress), new TimeoutException()));
+	}
+
+	/**
+	 * Runs a container (or adopts a reusable one)
+	 *
+	 * @return future completed with container id when container is ready
+	 */
+	private CompletableFuture<String> launch(ContainerDefinition definition, StartupProgress progress)
+		throws IOException, InterruptedException {
+		progress.enter(IMAGE);
+		String imageId = ensureImageAvailable(definition.getImage());
+		String fingerprint = null;
+		if (definition.isReusable()) {
+			fingerprint = ReusableContainers.fingerprint(definition, imageId);
+			String cid = reusable.adopt(fingerprint);
+			if (cid != null) {
+				log.info("Reusing container {} of image {}", cid, definition.getImage());
+				progress.setContainerId(cid);
+				progress.enter(READINESS);
+				return awaitReadiness(cid, definition, null, captureLogs(cid, definition, progress), progress);
+			}
 		}
+		createNetwork(definition.getNetwork(), definition.isReusable());
+
+		List<String> cmd = fingerprint == null
+			? prepareDockerCommand(definition, "-d")
+			: prepareDockerCommand(definition, "-d", "-l", ReusableContainers.FINGERPRINT_LABEL + "=" + fingerprint);
+
+		ContainerEventTracker tracker = getEventTracker();
+		progress.enter(StartupProgress.Phase.RUN);
+		long runStartedAt = currentTimeMillis();
+		String cid = runDetached(cmd);
+		if (tracker != null)
+			tracker.track(cid);
+		progress.setContainerId(cid);
+		if (imageId != null) {
+			// Image pull is not a part of a regular startup
+			history.record(definition.getImage(), RUN, currentTimeMillis() - runStartedAt);
+		}
+		if (definition.isRemoveAfterCompletion() && !definition.isReusable()) {
+			containersToRemove.add(cid);
+		}
+		CompletableFuture<Void> logged = captureLogs(cid, definition, progress);
 
-		List<String> cmd = prepareDockerCommand(definition, "--cidfile", cidFile.getAbsolutePath());
+		progress.enter(READINESS);
+		long readinessStartedAt = currentTimeMillis();
+		CompletableFuture<String> ready = awaitReadiness(cid, definition, tracker, logged, progress);
+		ready.thenRun(() -> history.record(definition.getImage(), READY, currentTimeMillis() - readinessStartedAt));
+		return ready;
+	}
 
-		Process process = runProcess(cmd);
+	/**
+	 * Runs container in detached mode, so no process is held while container is running. Container output is kept by
+	 * Docker daemon.
+	 *
+	 * @return container id
+	 */
+	private static String runDetached(List<String> cmd) throws IOException, InterruptedException {
+		ExecutionResult result;
 		try {
-			String cid = waitForCid(process, cidFile);
+			result = doExecute(cmd, singleton(0));
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to start Docker container.\n" + e.getMessage(), e);
+		}
+		// Container id is the last line of stdout
+		String[] lines = result.standardOutput.trim().split("\\n");
+		String cid = lines[lines.length - 1].trim();
+		if (cid.isEmpty()) {
+			throw new IllegalStateException("Unable to start Docker container. No container id reported.\n" +
+				"Stderr: " + result.errorOutput);
+		}
+		return cid;
+	}
 
-			if (definition.isRemoveAfterCompletion()) {
-				containersToRemove.add(cid);
+	/**
+	 * @param logged future completed when expected lines appear in container output
+	 */
+	private CompletableFuture<String> awaitReadiness(String cid, ContainerDefinition definition,
+	                                                 ContainerEventTracker tracker, CompletableFuture<Void> logged,
+	                                                 StartupProgress progress) {
+		CompletableFuture<Void> portsOpen = readiness.register(cid, definition, tcpFiles, tracker,
+			history.getExpected(definition.getImage(), READY));
+		CompletableFuture<Void> ready = new CompletableFuture<>();
+		portsOpen.thenAcceptBoth(logged, (ports, lines) -> ready.complete(null));
+		// Whichever check fails first fails the start
+		portsOpen.whenComplete((ignored, e) -> {
+			if (e != null)
+				ready.completeExceptionally(e);
+		});
+		logged.whenComplete((ignored, e) -> {
+			if (e != null)
+				ready.completeExceptionally(e);
+		});
+		// HTTP endpoints are probed when service is supposed to be up, so probes do not fail on connects
+		CompletableFuture<Void> responding = new CompletableFuture<>();
+		ready.whenComplete((ignored, e) -> {
+			if (e != null)
+				responding.completeExceptionally(e);
+			else if (definition.getHttpChecks().isEmpty())
+				responding.complete(null);
+			else
+				probeHttp(cid, definition, tracker, responding, progress);
+		});
+		CompletableFuture<String> result = new CompletableFuture<>();
+		responding.whenComplete((ignored, e) -> {
+			if (e == null) {
+				result.complete(cid);
+				return;
+			}
+			Throwable cause = unwrap(e);
+			if (cause instanceof CancellationException) {
+				result.completeExceptionally(cause);
+				return;
 			}
+			// Waiting for the rest of the output should not hold readiness monitor thread
+			try {
+				executor().execute(() -> {
+					result.completeExceptionally(cause instanceof IOException ? cause : readinessFailure(cid, cause));
+					discard(cid);
+				});
+			} catch (RejectedExecutionException rejected) {
+				result.completeExceptionally(cause);
+			}
+		});
+		result.whenComplete((ignored, e) -> {
+			if (result.isCancelled()) {
+				portsOpen.cancel(false);
+				responding.cancel(false);
+				async(() -> {
+					discard(cid);
+					return null;
+				});
+			}
+		});
+		return result;
+	}
 
-			waitForContainerRun(cid, process);
+	/**
+	 * Removes container which failed to start or is not needed anymore. Reusable containers are left running.
+	 */
+	private void discard(String cid) {
+		try {
+			remove(singleton(cid));
+		} catch (IOException e) {
+			log.warn("Unable to remove container {}", cid, e);
+		} catch (InterruptedException e) {
+			currentThread().interrupt();
+		}
+	}
 
-			if (shouldWaitForOpenPorts(definition))
-				waitForPorts(cid, definition.getPublishedPorts().keySet());
+	/**
+	 * Probes HTTP endpoints of a container using published host ports
+	 *
+	 * @param responding future to be completed when all the endpoints respond as expected. Probing is stopped when
+	 *                   future is completed by someone else (eg. cancelled)
+	 */
+	private void probeHttp(String cid, ContainerDefinition definition, ContainerEventTracker tracker,
+	                       CompletableFuture<Void> responding, StartupProgress progress) {
+		progress.enter(HTTP);
+		getPublishedTcpPortsAsync(cid).thenAccept(ports -> {
+			Map<HttpCheckDef, URL> urls = new LinkedHashMap<>();
+			for (HttpCheckDef check : definition.getHttpChecks())
+				urls.put(check, httpCheckUrl(cid, check, ports, portsHost));
+			List<CompletableFuture<Void>> probes = new ArrayList<>();
+			urls.forEach((check, url) -> {
+				HttpProbe probe = new HttpProbe(url, check, definition.getProbeBackoff());
+				progress.addProbe(probe);
+				// Blocking attempts are run on the executor, so they don't hold the scheduler
+				probes.add(probe.start(scheduler(), executor()));
+			});
+			CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, e) -> {
+				if (e == null)
+					responding.complete(null);
+				else
+					responding.completeExceptionally(e);
+			});
+			responding.whenComplete((ignored, e) -> probes.forEach(p -> p.cancel(false)));
+			if (tracker != null) {
+				tracker.exited(cid).thenAccept(exitCode -> responding.completeExceptionally(new IllegalStateException(
+					"Container " + cid + " exited with code " + exitCode + " before HTTP endpoints responded")));
+			}
+		}).whenComplete((ignored, e) -> {
+			if (e != null)
+				responding.completeExceptionally(e);
+		});
+	}
 
-			return cid;
-		} catch (IOException e) {
-			throw new UncheckedIOException("Unable to start container\n" +
-				"Container stderr: " + readFully(process.getErrorStream()), e);
+	/**
+	 * @param dockerHost value of {@code DOCKER_HOST} environment variable
+	 * @return host published ports are reachable at: daemon host if it is a remote one, loopback address otherwise
+	 */
+	static String publishedPortsHost(String dockerHost) {
+		if (!isNullOrEmpty(dockerHost)) {
+			try {
+				URI uri = URI.create(dockerHost);
+				if (("tcp".equals(uri.getScheme()) || "http".equals(uri.getScheme())) && !isNullOrEmpty(uri.getHost()))
+					return uri.getHost();
+			} catch (IllegalArgumentException e) {
+				log.debug("Unable to parse DOCKER_HOST: {}", dockerHost, e);
+			}
 		}
+		return InetAddress.getLoopbackAddress().getHostAddress();
 	}
 
-	private void createNetwork(String network) throws IOException, InterruptedException {
-		synchronized (networks) {
-			if (!isNullOrEmpty(network) && networks.add(network)) {
-				docker("network", "create", network);
+	private static URL httpCheckUrl(String cid, HttpCheckDef check, Map<Integer, Integer> publishedPorts,
+	                                String host) {
+		int port = check.getPort();
+		if (port == 0) {
+			if (publishedPorts.size() != 1)
+				throw new IllegalStateException("Port of HTTP check should be specified, container " + cid + " publishes " +
+					"ports " + publishedPorts.keySet());
+			port = publishedPorts.keySet().iterator().next();
+		}
+		Integer hostPort = publishedPorts.get(port);
+		if (hostPort == null || hostPort <= 0)
+			throw new IllegalStateException("Port " + port + " of HTTP check is not published by container " + cid);
+		try {
+			return new URL("http", host, hostPort, check.getPath());
+		} catch (MalformedURLException e) {
+			throw new IllegalArgumentException("Invalid path of HTTP check: " + check.getPath(), e);
+		}
+	}
+
+	private IllegalStateException readinessFailure(String cid, Throwable cause) {
+		String tail;
+		try {
+			ContainerLogCapture capture = logs.get(cid);
+			if (capture != null) {
+				// Container is probably stopped, so the rest of the output should arrive shortly
+				capture.awaitCompletion(500);
 			}
+			tail = getLogsTail(cid);
+		} catch (InterruptedException e) {
+			currentThread().interrupt();
+			tail = "";
 		}
+		return new IllegalStateException(cause.getMessage() + "\n" +
+			"Container logs: " + tail, cause);
 	}
 
-	private void waitForContainerRun(String cid, Process process) throws IOException, InterruptedException {
-		do {
-			String state = getContainerState(cid);
-			if ("running".equalsIgnoreCase(state)) {
-				return; // container is running, waiting is over
-			} else if ("created".equalsIgnoreCase(state)) {
-				sleep(100); // container may start not immediately. let's wait some time
-			} else if (!process.isAlive() && process.exitValue() != 0) {
-				throw new IllegalStateException("Unable to start container " + cid + "\n" +
-					"Exit code: " + process.exitValue() + "\n" +
-					"Stderr: " + readFully(process.getErrorStream()));
-			} else {
-				throw new IllegalStateException("Unable to start container " + cid + " current state is " + state);
+	/**
+	 * @return diagnostic snapshot of a container start: time spent in each phase, container state, readiness checks not
+	 * passed yet and the last lines of the output
+	 */
+	private String describe(StartupProgress progress) {
+		StringBuilder result = new StringBuilder()
+			.append("Image: ").append(progress.getDefinition().getImage()).append('\n')
+			.append("Phases: ").append(progress.describePhases()).append('\n');
+		String cid = progress.getContainerId();
+		if (cid == null)
+			return result.toString();
+		result.append("Container: ").append(cid).append('\n')
+			.append("State: ").append(describeState(cid)).append('\n');
+		String readinessStatus = readiness.describe(cid);
+		if (readinessStatus != null)
+			result.append("Readiness: ").append(readinessStatus).append('\n');
+		String checks = progress.describePendingChecks();
+		if (!checks.isEmpty())
+			result.append("Waiting for: ").append(checks).append('\n');
+		try {
+			result.append("Last log lines:\n").append(lastLines(getLogsTail(cid), DIAGNOSTIC_LOG_LINES));
+		} catch (InterruptedException e) {
+			currentThread().interrupt();
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return diagnostic snapshots of all the containers being started at the moment
+	 */
+	String describeStarts() {
+		return starting.stream()
+			.map(this::describe)
+			.collect(joining("\n"));
+	}
+
+	private String describeState(String cid) {
+		try {
+			return describeState(await(stateInspections.inspect(cid)).path("State"));
+		} catch (IOException e) {
+			return "unknown (" + e.getMessage() + ")";
+		} catch (InterruptedException e) {
+			currentThread().interrupt();
+			return "unknown";
+		}
+	}
+
+	/**
+	 * @param state {@code State} object of {@code docker inspect} output
+	 * @return status of a container, eg. {@code exited with code 1, killed by OOM killer}
+	 */
+	static String describeState(JsonNode state) {
+		String status = state.path("Status").asText("unknown");
+		StringBuilder result = new StringBuilder(status);
+		if ("exited".equals(status) || "dead".equals(status))
+			result.append(" with code ").append(state.path("ExitCode").asInt());
+		if (state.path("OOMKilled").asBoolean())
+			result.append(", killed by OOM killer");
+		String health = state.at("/Health/Status").asText();
+		if (!health.isEmpty())
+			result.append(", health ").append(health);
+		String error = state.path("Error").asText();
+		if (!error.isEmpty())
+			result.append(", error: ").append(error);
+		return result.toString();
+	}
+
+	/**
+	 * @return last {@code count} lines of a text
+	 */
+	static String lastLines(String text, int count) {
+		int start = text.endsWith("\n") ? text.length() - 1 : text.length();
+		for (int i = 0; i < count && start >= 0; i++)
+			start = text.lastIndexOf('\n', start - 1);
+		return text.substring(start + 1);
+	}
+
+	/**
+	 * Starts capturing container output in background. Only the tail of the output is kept in memory
+	 * ({@code docker.logs.bufferSize} bytes). Full output is written to {@code docker.logs.directory} if this
+	 * system property is set.
+	 * <p>
+	 * If following is expensive (see {@link DockerTransport#isFollowingExpensive()}), output is followed only while
+	 * expected lines are awaited or if it should be written to a file. Otherwise it is requested on demand.
+	 *
+	 * @return future completed when lines expected by a definition (see {@link ContainerDefinition#getLogPatterns()})
+	 * appear in container output
+	 */
+	private CompletableFuture<Void> captureLogs(String cid, ContainerDefinition definition, StartupProgress progress)
+		throws InterruptedException {
+		LogMatcher matcher = definition.getLogPatterns().isEmpty()
+			? null
+			: new LogMatcher(definition.getLogPatterns());
+		progress.setLogMatcher(matcher);
+		boolean expensive = transport.isFollowingExpensive();
+		// Output is available on demand (see getLogsTail()), so it is followed only if it is needed
+		if (expensive && matcher == null && logsDirectory == null)
+			return CompletableFuture.completedFuture(null);
+		try {
+			Path spillFile = logsDirectory == null
+				? null
+				: Paths.get(logsDirectory, definition.getImage().replaceAll("[^\\w.-]", "_") + "-" +
+				cid.substring(0, Math.min(12, cid.length())) + ".log");
+			ContainerLogCapture capture = new ContainerLogCapture(cid, transport.followLogs(cid), logsBufferSize,
+				spillFile, matcher);
+			ContainerLogCapture previous = logs.put(cid, capture);
+			if (previous != null)
+				previous.close();
+			if (expensive && spillFile == null) {
+				// Following is stopped as soon as expected lines appear
+				matcher.getMatched().whenComplete((ignored, e) -> {
+					if (logs.remove(cid, capture))
+						capture.close();
+				});
+			}
+		} catch (IOException e) {
+			log.debug("Unable to capture logs of container {}", cid, e);
+			if (matcher != null) {
+				CompletableFuture<Void> failed = new CompletableFuture<>();
+				failed.completeExceptionally(new IllegalStateException("Unable to follow output of container " + cid +
+					" waiting for " + definition.getLogPatterns(), e));
+				return failed;
 			}
-		} while (true);
+		}
+		return matcher == null
+			? CompletableFuture.completedFuture(null)
+			: matcher.getMatched();
 	}
 
-	private static boolean shouldWaitForOpenPorts(ContainerDefinition definition) {
-		return !definition.getPublishedPorts().isEmpty() && definition.isWaitForAllExposedPortsToBeOpen();
+	/**
+	 * @param image image name
+	 * @return expected time from {@code docker run} to container readiness based on previous runs or {@code -1} if
+	 * image was never started
+	 */
+	long getExpectedStartupMs(String image) {
+		return history.getExpectedTotal(image);
 	}
 
-	private void ensureImageAvailable(String image) throws IOException, InterruptedException {
-		int exitValue = doExecute(asList(pathToDocker, "image", "inspect", image), new HashSet<>(asList(0, 1))).exitCode;
-		if (exitValue == 1) {
-			log.warn("Image {} is not found locally. It will take some time to download it.", image);
+	/**
+	 * @param containerId container id
+	 * @return last lines of container output or empty string if logs are not available (eg. container is already
+	 * removed)
+	 * @throws InterruptedException when thread was interrupted
+	 */
+	public String getLogsTail(String containerId) throws InterruptedException {
+		ContainerLogCapture capture = logs.get(containerId);
+		if (capture != null && capture.getWrittenBytes() > 0)
+			return capture.tail();
+		try {
+			return transport.getLogs(containerId, LOGS_TAIL_LINES);
+		} catch (IOException e) {
+			log.debug("Unable to read logs of container {}", containerId, e);
+			return "";
+		}
+	}
+
+	/**
+	 * Creates network if it is not present yet. Only networks created by this instance are removed on {@link #close()}.
+	 * Networks used by reusable containers are never removed, because containers are still attached to them.
+	 */
+	private void createNetwork(String network, boolean reusable) throws IOException, InterruptedException {
+		if (isNullOrEmpty(network))
+			return;
+		CompletableFuture<Void> removal = networkRemovals.get(network);
+		if (removal != null) {
+			// Network of the previous session is still being removed, so it couldn't be used
+			try {
+				removal.get();
+			} catch (ExecutionException e) {
+				log.debug("Unable to remove network {}", network, e.getCause());
+			}
+		}
+		synchronized (networks) {
+			if (reusable)
+				persistentNetworks.add(network);
+			if (!knownNetworks.add(network))
+				return;
+			if (!transport.isNetworkPresent(network)) {
+				transport.createNetwork(network);
+				networks.add(network);
+			}
 		}
 	}
 
-	private String waitForCid(Process process, File cidFile) throws InterruptedException, IOException {
-		do {
-			if (cidFile.isFile() && cidFile.length() > 0) {
-				return readAllLines(cidFile.toPath()).get(0);
-			} else if (!process.isAlive() && process.exitValue() != 0) {
-				throw new IllegalStateException("Unable to start Docker container.\n" +
-					"Exit code: " + process.exitValue() + "\n" +
-					"Stderr: " + readFully(process.getErrorStream()));
+	/**
+	 * Lazily opens single event subscription used by all the containers started in the session.
+	 *
+	 * @return event tracker or {@code null} if events are not available
+	 */
+	private synchronized ContainerEventTracker getEventTracker() throws InterruptedException {
+		if (events == null || !events.isActive()) {
+			try {
+				events = ContainerEventTracker.subscribe(transport);
+				events.setListener(readiness::wakeUp);
+			} catch (IOException e) {
+				log.debug("Unable to subscribe to Docker events. Falling back to polling", e);
+				return null;
 			}
-			sleep(100);
-		} while (true);
+		}
+		return events;
+	}
+
+	/**
+	 * @return id of a local image or {@code null} if image is not available locally
+	 */
+	private String ensureImageAvailable(String image) throws IOException, InterruptedException {
+		String imageId = transport.getImageId(image);
+		if (imageId == null) {
+			log.warn("Image {} is not found locally. It will take some time to download it.", image);
+		}
+		return imageId;
 	}
 
 	private static String doExecuteAndGetFullOutput(List<String> cmd) throws IOException, InterruptedException {
 		return doExecute(cmd, singleton(0)).standardOutput;
 	}
 
-	private static class ExecutionResult {
+	static class ExecutionResult {
 		int exitCode;
 		String standardOutput;
 		String errorOutput;
@@ -174,14 +783,25 @@ public final class Docker implements Closeable {
 		}
 	}
 
-	private static ExecutionResult doExecute(List<String> cmd, Set<Integer> expectedExitCodes)
+	static ExecutionResult doExecute(List<String> cmd, Set<Integer> expectedExitCodes)
 		throws IOException, InterruptedException {
 
 		Process process = runProcess(cmd);
 
+		// Stderr is read concurrently, otherwise process could block on a full stderr pipe while stdout is being read
+		FutureTask<String> error = new FutureTask<>(() -> readFully(process.getErrorStream()));
+		Thread errorReader = new Thread(error, "docker-stderr-reader");
+		errorReader.setDaemon(true);
+		errorReader.start();
+
 		String processOutput = readFully(process.getInputStream());
-		String processError = readFully(process.getErrorStream());
 		int exitCode = process.waitFor();
+		String processError;
+		try {
+			processError = error.get();
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to read stderr of: " + String.join(" ", cmd), e.getCause());
+		}
 		if (!expectedExitCodes.contains(exitCode)) {
 			throw new IOException("Unable to execute: " + String.join(" ", cmd) + "\n" +
 				"Exit code: " + exitCode + "\n" +
@@ -192,7 +812,7 @@ public final class Docker implements Closeable {
 		return new ExecutionResult(exitCode, processOutput, processError);
 	}
 
-	private static Process runProcess(List<String> cmd) throws IOException {
+	static Process runProcess(List<String> cmd) throws IOException {
 		if (log.isDebugEnabled()) {
 			log.debug("Executing: {}", prettyFormatCommand(cmd));
 		}
@@ -207,7 +827,7 @@ public final class Docker implements Closeable {
 		cmd.add("run");
 
 		cmd.add("-l");
-		cmd.add("docker");
+		cmd.add(DockerTransport.LABEL);
 
 		if (additionalOpts.length > 0) {
 			cmd.addAll(asList(additionalOpts));
@@ -250,6 +870,10 @@ public final class Docker implements Closeable {
 			cmd.add("--network=" + network);
 		}
 
+		if (def.getHealthCheckIntervalMs() > 0) {
+			cmd.add("--health-interval=" + def.getHealthCheckIntervalMs() + "ms");
+		}
+
 		String netAlias = def.getNetworkAlias();
 		if (!isNullOrEmpty(netAlias)) {
 			cmd.add("--network-alias=" + netAlias);
@@ -288,132 +912,352 @@ public final class Docker implements Closeable {
 	}
 
 	/**
-	 * Waits for given ports to be open in a container.
-	 * <p>
-	 * Only TCP ports are monitored at the moment using /proc/self/net/tcp
+	 * @param containerName container name or id
+	 * @return Map where keys are container ports and values are host ports
+	 * @throws IOException          if there is error while docker inspecting
+	 * @throws InterruptedException when thread was interrupted
+	 */
+	public Map<Integer, Integer> getPublishedTcpPorts(String containerName) throws IOException, InterruptedException {
+		return publishedPorts(await(stateInspections.inspect(containerName)));
+	}
+
+	/**
+	 * Inspects a container without blocking calling thread. Requests of concurrent callers are coalesced, so each
+	 * container is inspected once (see {@link InspectCoalescer})
 	 *
-	 * @param cid   container to monitor
-	 * @param ports ports to wait for
-	 */
-	private void waitForPorts(String cid, Set<Integer> ports) throws IOException, InterruptedException {
-		Thread self = currentThread();
-		long start = currentTimeMillis();
-		boolean reported = false;
-		while (!self.isInterrupted()) {
-			Set<Integer> openPorts = new HashSet<>();
-			for (String file : tcpFiles) {
-				openPorts.addAll(readListenPorts(docker("exec", cid, "sh", "-c", "[ ! -f " + file + " ] || cat " + file)));
-			}
-			if (openPorts.containsAll(ports))
-				return;
+	 * @param containerName container name or id
+	 * @return future completed with a container object of {@code docker inspect} output. The object is shared by
+	 * concurrent callers, so it should not be modified
+	 */
+	public CompletableFuture<JsonNode> inspectAsync(String containerName) {
+		return inspections.inspect(containerName);
+	}
 
-			checkContainerRunning(cid);
+	/**
+	 * @param containerName container name or id
+	 * @return future completed with a map where keys are container ports and values are host ports
+	 * @see #getPublishedTcpPorts(String)
+	 */
+	public CompletableFuture<Map<Integer, Integer>> getPublishedTcpPortsAsync(String containerName) {
+		return stateInspections.inspect(containerName).thenApply(Docker::publishedPorts);
+	}
 
-			if (!reported && currentTimeMillis() - start > 5000) {
-				reported = true;
-				log.warn("Waiting for ports {} to open in container {}", ports, cid);
-			}
+	/**
+	 * Forcibly removes containers started by this instance before {@link #close()} is called. Containers which should
+	 * not be removed after completion (including reusable ones) are left running.
+	 *
+	 * @param containerIds ids of containers returned by {@link #start(ContainerDefinition)}
+	 * @throws IOException          if there is error while removing containers
+	 * @throws InterruptedException when thread was interrupted
+	 */
+	public void remove(Collection<String> containerIds) throws IOException, InterruptedException {
+		await(removeAsync(containerIds));
+	}
 
-			MILLISECONDS.sleep(200);
+	/**
+	 * Removes containers in background. Containers are removed in parallel batches, so removal of heavy containers
+	 * doesn't hold calling thread. Pending removals are awaited on JVM shutdown.
+	 *
+	 * @param containerIds ids of containers returned by {@link #start(ContainerDefinition)}
+	 * @return future completed when all the containers are removed
+	 * @see #remove(Collection)
+	 */
+	public CompletableFuture<Void> removeAsync(Collection<String> containerIds) {
+		List<String> ids = containerIds.stream()
+			.filter(containersToRemove::remove)
+			.collect(toList());
+		for (String id : containerIds) {
+			ContainerLogCapture capture = logs.remove(id);
+			if (capture != null)
+				capture.close();
 		}
+		return removeInBackground(ids);
 	}
 
-	private String docker(String command, String... args) throws IOException, InterruptedException {
-		List<String> cmd = new ArrayList<>(args.length + 2);
-		cmd.add(pathToDocker);
-		cmd.add(command);
-		cmd.addAll(asList(args));
-		return doExecuteAndGetFullOutput(cmd);
+	private CompletableFuture<Void> removeInBackground(List<String> ids) {
+		if (ids.isEmpty())
+			return CompletableFuture.completedFuture(null);
+		List<CompletableFuture<Void>> batches = new ArrayList<>();
+		for (int i = 0; i < ids.size(); i += REMOVAL_BATCH_SIZE) {
+			List<String> batch = ids.subList(i, Math.min(ids.size(), i + REMOVAL_BATCH_SIZE));
+			batches.add(async(teardown(), () -> {
+				transport.removeContainers(batch);
+				return null;
+			}));
+		}
+		CompletableFuture<Void> removed = CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]));
+		removals.add(removed);
+		removed.whenComplete((ignored, e) -> removals.remove(removed));
+		// Callers get their own future, so cancelling it doesn't affect tracking of the removal
+		return pendingTeardowns.track(removed).thenApply(identity());
 	}
 
-	private void checkContainerRunning(String id) throws IOException, InterruptedException {
-		String state = getContainerState(id);
-		if (!"running".equalsIgnoreCase(state)) {
-			throw new IllegalStateException("Container " + id + " failed to start. Current state: " + state);
+	/**
+	 * Releases all the resources without blocking calling thread. Containers are removed in parallel batches in
+	 * background, networks are removed after all the containers (including ones being removed by
+	 * {@link #removeAsync(Collection)}) are gone. Pending teardown is awaited on JVM shutdown.
+	 * <p>
+	 * Facility could be used again right away, eg. next test context could start its containers while containers of the
+	 * previous one are being removed.
+	 *
+	 * @return future completed when all the resources are released and monitoring threads are stopped
+	 * @see #close()
+	 */
+	public CompletableFuture<Void> closeAsync() {
+		synchronized (this) {
+			if (executor != null) {
+				executor.shutdownNow();
+				executor = null;
+			}
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+				scheduler = null;
+			}
+		}
+		// Removals already in flight are awaited only to remove networks after them, their failures are reported by callers
+		List<CompletableFuture<?>> containersGone = new ArrayList<>();
+		for (CompletableFuture<Void> removal : removals)
+			containersGone.add(removal.handle((ignored, e) -> null));
+		List<String> ids = new ArrayList<>(containersToRemove);
+		containersToRemove.removeAll(ids);
+		CompletableFuture<Void> containersRemoved = removeInBackground(ids);
+		containersGone.add(containersRemoved.handle((ignored, e) -> null));
+
+		Set<String> networksToRemove;
+		synchronized (networks) {
+			networks.removeAll(persistentNetworks);
+			networksToRemove = new LinkedHashSet<>(networks);
+			networks.clear();
+			knownNetworks.clear();
+		}
+		reusable.release();
+		history.save();
+		logs.values().forEach(ContainerLogCapture::close);
+		logs.clear();
+		CompletableFuture<Void> monitorsStopped = readiness.closeAsync();
+		synchronized (this) {
+			if (events != null) {
+				monitorsStopped = CompletableFuture.allOf(monitorsStopped, events.terminated());
+				try {
+					events.close();
+				} catch (IOException e) {
+					log.warn("Unable to stop event tracking", e);
+				}
+				events = null;
+			}
 		}
+
+		// Networks could be removed only when containers attached to them are gone
+		CompletableFuture<Void> networksRemoved = CompletableFuture
+			.allOf(containersGone.toArray(new CompletableFuture<?>[0]))
+			.thenCompose(ignored -> removeNetworks(networksToRemove));
+		CompletableFuture<Void> result = CompletableFuture.allOf(containersRemoved, networksRemoved, monitorsStopped);
+		result.whenComplete((ignored, e) -> {
+			try {
+				transport.close();
+			} catch (IOException closeError) {
+				log.warn("Unable to close transport", closeError);
+			}
+		});
+		return pendingTeardowns.track(result).thenApply(identity());
 	}
 
-	private String getContainerState(String id) throws IOException, InterruptedException {
-		String json = docker("inspect", id);
-		JsonNode root = jsonReader.readTree(json);
-		return root.at("/0/State/Status").asText();
+	private CompletableFuture<Void> removeNetworks(Collection<String> names) {
+		List<CompletableFuture<Void>> removed = new ArrayList<>();
+		for (String network : names) {
+			CompletableFuture<Void> removal = async(teardown(), () -> {
+				transport.removeNetwork(network);
+				return null;
+			});
+			networkRemovals.put(network, removal);
+			removal.whenComplete((ignored, e) -> networkRemovals.remove(network, removal));
+			removed.add(removal);
+		}
+		return CompletableFuture.allOf(removed.toArray(new CompletableFuture<?>[0]));
 	}
 
 	/**
-	 * @param containerName container name or id
-	 * @return Map where keys are container ports and values are host ports
-	 * @throws IOException          if there is error while docker inspecting
-	 * @throws InterruptedException when thread was interrupted
+	 * Releases all the resources and waits for containers and networks to be removed
+	 *
+	 * @see #closeAsync()
 	 */
-	public Map<Integer, Integer> getPublishedTcpPorts(String containerName) throws IOException, InterruptedException {
-		String json = docker("inspect", containerName);
-		JsonNode root = jsonReader.readTree(json);
+	@Override
+	public void close() throws IOException {
+		try {
+			await(closeAsync());
+		} catch (InterruptedException e) {
+			currentThread().interrupt();
+		}
+	}
 
-		return doGetPublishedPorts(root);
+	/**
+	 * @return executor running blocking operations of asynchronous methods. Executor is recreated after
+	 * {@link #close()}, so the facility could be used again
+	 */
+	private synchronized ExecutorService executor() {
+		if (executor == null) {
+			executor = Executors.newCachedThreadPool(r -> {
+				Thread thread = new Thread(r, "docker-async");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
 	}
 
-	@Override
-	public void close() throws IOException {
-		if (!containersToRemove.isEmpty()) {
-			try {
-				List<String> cmd = new ArrayList<>(asList(pathToDocker, "rm", "-f", "-v"));
-				cmd.addAll(containersToRemove);
-				doExecute(cmd, singleton(0));
-				containersToRemove.clear();
+	/**
+	 * @return scheduler running HTTP probes and startup deadlines. Recreated after {@link #close()} as well
+	 */
+	private synchronized ScheduledExecutorService scheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newScheduledThreadPool(2, r -> {
+				Thread thread = new Thread(r, "docker-scheduler");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return scheduler;
+	}
 
-			} catch (InterruptedException e) {
-				currentThread().interrupt();
+	/**
+	 * Runs a task on the executor after a delay, so the task is free to perform blocking operations
+	 */
+	ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+		return scheduler().schedule(() -> {
+			try {
+				executor().execute(task);
+			} catch (RejectedExecutionException e) {
+				log.debug("Scheduled task is rejected", e);
 			}
+		}, delayMs, MILLISECONDS);
+	}
+
+	/**
+	 * @return executor removing containers and networks. It is not stopped by {@link #close()}, so teardown outlives the
+	 * session. Idle threads are stopped
+	 */
+	private synchronized ExecutorService teardown() {
+		if (teardown == null) {
+			ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_PARALLEL_REMOVALS, MAX_PARALLEL_REMOVALS, 1, SECONDS,
+				new LinkedBlockingQueue<>(), r -> {
+				Thread thread = new Thread(r, "docker-teardown");
+				thread.setDaemon(true);
+				return thread;
+			});
+			pool.allowCoreThreadTimeOut(true);
+			teardown = pool;
 		}
+		return teardown;
+	}
 
-		synchronized (networks) {
-			if (!networks.isEmpty()) {
+	private <T> CompletableFuture<T> async(BlockingOperation<T> operation) {
+		return async(executor(), operation);
+	}
+
+	private static <T> CompletableFuture<T> async(ExecutorService executor, BlockingOperation<T> operation) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		try {
+			Future<?> task = executor.submit(() -> {
 				try {
-					for (String network : networks) {
-						docker("network", "rm", network);
-					}
-					networks.clear();
-				} catch (InterruptedException e) {
-					currentThread().interrupt();
+					result.complete(operation.call());
+				} catch (Throwable e) {
+					result.completeExceptionally(e);
 				}
-			}
+			});
+			result.whenComplete((value, e) -> {
+				if (result.isCancelled())
+					task.cancel(true);
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Waits for a future, rethrowing its failure as is when possible. Future is cancelled if waiting thread is
+	 * interrupted.
+	 */
+	static <T> T await(CompletableFuture<T> future) throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			if (cause instanceof InterruptedException)
+				throw new InterruptedException(cause.getMessage());
+			throw new IllegalStateException(cause);
 		}
 	}
 
+	static Throwable unwrap(Throwable e) {
+		while (e instanceof CompletionException && e.getCause() != null)
+			e = e.getCause();
+		return e;
+	}
+
+	@FunctionalInterface
+	private interface BlockingOperation<T> {
+
+		T call() throws IOException, InterruptedException;
+	}
+
 	static Map<Integer, Integer> doGetPublishedPorts(JsonNode root) {
-		JsonNode candidate = root.at("/0/NetworkSettings/Ports");
-		if (candidate.isMissingNode() || candidate.isNull())
-			return Collections.emptyMap();
-		ObjectNode ports = (ObjectNode) candidate;
-		Iterator<String> names = ports.fieldNames();
+		return publishedPorts(root.path(0));
+	}
+
+	/**
+	 * @param container single container object of {@code docker inspect} output
+	 * @return Map where keys are container ports and values are host ports
+	 */
+	static Map<Integer, Integer> publishedPorts(JsonNode container) {
+		Iterator<Map.Entry<String, JsonNode>> fields = container.path("NetworkSettings").path("Ports").fields();
 		Map<Integer, Integer> pts = new HashMap<>();
-		while (names.hasNext()) {
-			String field = names.next();
-			if (field.matches("\\d+/tcp")) {
-				String[] parts = field.split("/", 2);
-				int containerPort = parseInt(parts[0]);
-				int localPort = ports.at("/" + field.replace("/", "~1") + "/0/HostPort").asInt();
-				pts.put(containerPort, localPort);
-			}
+		while (fields.hasNext()) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			int containerPort = parseTcpPort(field.getKey());
+			if (containerPort >= 0)
+				pts.put(containerPort, field.getValue().path(0).path("HostPort").asInt());
 		}
-
 		return pts;
 	}
 
+	/**
+	 * @param key port key of {@code docker inspect} output, eg. {@code 8080/tcp}
+	 * @return port number or {@code -1} if key is not a TCP port
+	 */
+	static int parseTcpPort(String key) {
+		int slash = key.length() - 4;
+		if (slash <= 0 || slash > 5 || !key.startsWith("/tcp", slash))
+			return -1;
+		int port = 0;
+		for (int i = 0; i < slash; i++) {
+			char c = key.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			port = port * 10 + c - '0';
+		}
+		return port;
+	}
+
+	/**
+	 * @param output contents of {@code /proc/net/tcp} table
+	 * @return ports of sockets in {@code LISTEN} state
+	 */
 	public static Set<Integer> readListenPorts(String output) {
-		Scanner scanner = new Scanner(output);
-		scanner.useRadix(16).useDelimiter("[\\s:]+");
+		byte[] table = output.getBytes(US_ASCII);
+		BitSet ports = new BitSet();
+		ProcNetTcpParser.parse(table, 0, table.length, ports);
 		Set<Integer> result = new HashSet<>();
-		if (scanner.hasNextLine())
-			scanner.nextLine();
-
-		while (scanner.hasNextLine()) {
-			scanner.nextInt();
-			scanner.next();
-			int localPort = scanner.nextInt();
-			result.add(localPort);
-			scanner.nextLine();
-		}
+		ports.stream().forEach(result::add);
 		return result;
 	}
 
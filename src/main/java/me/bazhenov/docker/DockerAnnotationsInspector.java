@@ -50,11 +50,28 @@ public class DockerAnnotationsInspector {
 				importNamespaces.add(createNamespace(aClass));
 			}
 		}
+		for (Container a : local) {
+			for (String name : a.dependsOn()) {
+				ContainerDefinition dependency = resolveDependency(name, result, importNamespaces);
+				if (dependency == null)
+					throw new IllegalStateException("Unknown container " + name + " in dependencies of " + a.name() +
+						" for test: " + clazz);
+				result.get(a.name()).addDependency(dependency);
+			}
+		}
 		ContainerNamespace namespace = new ContainerNamespace(result, importNamespaces);
 		namespaces.put(clazz, namespace);
 		return namespace;
 	}
 
+	private static ContainerDefinition resolveDependency(String name, Map<String, ContainerDefinition> local,
+	                                                     List<ContainerNamespace> imports) {
+		ContainerDefinition definition = local.get(name);
+		for (int i = 0; definition == null && i < imports.size(); i++)
+			definition = imports.get(i).getDefinition(name);
+		return definition;
+	}
+
 	private static ContainerDefinition createContainerDefinitionFromAnnotation(Container annotation) {
 		ContainerDefinition def = new ContainerDefinition(annotation.image(), annotation.command());
 		fillPublishedPorts(annotation, def);
@@ -63,6 +80,15 @@ public class DockerAnnotationsInspector {
 		fillVolumes(annotation, def);
 		def.setRemoveAfterCompletion(annotation.removeAfterCompletion());
 		def.setWaitForAllExposedPortsToBeOpen(annotation.waitForAllExposedPorts());
+		def.setReusable(annotation.reuse());
+		def.setPortsCheck(annotation.portsCheck());
+		for (HttpCheck check : annotation.waitForHttp())
+			def.addHttpCheck(new HttpCheckDef(check.port(), check.path(), check.status(), check.body()));
+		def.setWaitForHealthy(annotation.waitForHealthy());
+		def.setHealthCheckIntervalMs(annotation.healthCheckIntervalMs());
+		def.setStartupTimeoutMs(annotation.startupTimeoutMs());
+		for (LogPattern pattern : annotation.waitForLog())
+			def.addLogPattern(new LogPatternDef(pattern.value(), pattern.occurrences()));
 		def.setNetwork(annotation.network());
 		def.setNetworkAlias(annotation.networkAlias());
 		if (!annotation.workingDir().isEmpty()) {
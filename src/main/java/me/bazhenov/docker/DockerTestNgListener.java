@@ -1,97 +1,108 @@
 package me.bazhenov.docker;
 
+import org.slf4j.Logger;
+import org.testng.ISuite;
+import org.testng.ISuiteListener;
 import org.testng.ITestContext;
 import org.testng.ITestNGMethod;
+import org.testng.ITestResult;
 import org.testng.TestListenerAdapter;
 import org.testng.annotations.Listeners;
 
-import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.util.ArrayList;
 import java.util.IdentityHashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Set;
 
 import static java.lang.Thread.currentThread;
+import static java.util.stream.Collectors.toSet;
+import static org.slf4j.LoggerFactory.getLogger;
 
 /**
  * Orchestrates container initialisation and tear down for TestNG.
  * <p>
  * Typical usage consist of registering this class as a TestNG listener (see. {@link Listeners}) and then using
  * annotations {@link Container}, {@link AfterContainerStart} and {@link ContainerPort}.
+ * <p>
+ * Containers are shared by all the {@code <test>} contexts of a suite. Containers are started before the first context
+ * using them and removed after the last one (see {@link SuiteContainers}).
  */
-public class DockerTestNgListener extends TestListenerAdapter {
+public class DockerTestNgListener extends TestListenerAdapter implements ISuiteListener {
+
+	/**
+	 * Name of a test result attribute holding output of containers of a failed test
+	 */
+	public static final String LOGS_ATTRIBUTE = "docker.logs";
 
-	private final Docker docker = new Docker();
+	private static final Logger log = getLogger(DockerTestNgListener.class);
+
+	@Override
+	public void onStart(ISuite suite) {
+		SuiteContainers.forSuite(suite);
+	}
 
 	@Override
 	public void onStart(ITestContext testContext) {
 		super.onStart(testContext);
 
-		DockerAnnotationsInspector inspector = new DockerAnnotationsInspector();
-		ExecutorService starter = Executors.newCachedThreadPool();
+		SuiteContainers containers = SuiteContainers.forSuite(testContext.getSuite());
+		Map<Object, Boolean> testObjects = new IdentityHashMap<>();
+		for (ITestNGMethod m : testContext.getAllTestMethods()) {
+			testObjects.putIfAbsent(m.getInstance(), true);
+		}
+		Set<Class<?>> classes = testObjects.keySet().stream()
+			.map(Object::getClass)
+			.collect(toSet());
 
 		try {
-			Map<Object, Boolean> testObjects = new IdentityHashMap<>();
-			for (ITestNGMethod m : testContext.getAllTestMethods()) {
-				testObjects.putIfAbsent(m.getInstance(), true);
-			}
-
-			// Retrieving container preferences and creating namespaces
-			testObjects.keySet().stream()
-				.map(Object::getClass)
-				.forEach(inspector::createNamespace);
-
-			List<Future<?>> futures = new ArrayList<>();
-
-			// Starting containers and waiting for ports in parallel threads
-			for (ContainerNamespace namespace : inspector.getAllNamespaces()) {
-				for (ContainerDefinition definition : namespace.getAllDefinitions()) {
-					futures.add(starter.submit(() -> {
-						try {
-							String containerId = docker.start(definition);
-							Map<Integer, Integer> publishedTcpPorts = docker.getPublishedTcpPorts(containerId);
-							namespace.registerPublishedTcpPorts(definition, publishedTcpPorts);
-						} catch (IOException e) {
-							throw new UncheckedIOException(e);
-						} catch (InterruptedException e) {
-							currentThread().interrupt();
-						}
-					}));
-				}
-			}
-
-			// Waiting for all containers ready
-			for (Future<?> future : futures) {
-				try {
-					future.get();
-				} catch (ExecutionException e) {
-					throw new RuntimeException(e);
-				}
-			}
+			// Starting containers not started by previous contexts and waiting for ports
+			containers.acquire(testContext.getName(), classes);
 
 			// Performing port identification
 			for (Object test : testObjects.keySet()) {
-				inspector.resolveNotificationMethod(test.getClass()).ifPresent(m -> m.call(test));
+				containers.resolveNotificationMethod(test.getClass()).ifPresent(m -> m.call(test));
 			}
 		} catch (InterruptedException e) {
 			currentThread().interrupt();
-		} finally {
-			starter.shutdown();
 		}
 	}
 
+	/**
+	 * Attaches output tails of the test containers to the failed test result as a {@value #LOGS_ATTRIBUTE} attribute
+	 * (map of container name to output).
+	 */
 	@Override
-	public void onFinish(ITestContext testContext) {
-		super.onFinish(testContext);
+	public void onTestFailure(ITestResult result) {
+		super.onTestFailure(result);
 		try {
-			docker.close();
-		} catch (IOException e) {
-			throw new UncheckedIOException(e);
+			Map<String, String> tails = SuiteContainers.forSuite(result.getTestContext().getSuite())
+				.getLogsTails(result.getTestClass().getRealClass());
+			if (!tails.isEmpty()) {
+				result.setAttribute(LOGS_ATTRIBUTE, tails);
+				tails.forEach((name, tail) -> log.info("Output of container {} at the moment {} failed:\n{}", name,
+					result.getName(), tail));
+			}
+		} catch (InterruptedException e) {
+			currentThread().interrupt();
 		}
 	}
+
+	@Override
+	public void onFinish(ITestContext testContext) {
+		super.onFinish(testContext);
+		SuiteContainers.forSuite(testContext.getSuite()).release(testContext.getName());
+	}
+
+	/**
+	 * @param suite TestNG suite
+	 * @return state of the container start scheduler of a suite. Maximum number of simultaneous starts could be
+	 * configured using {@code docker.start.concurrency} suite parameter or system property.
+	 */
+	public static StartStatistics getStartStatistics(ISuite suite) {
+		return SuiteContainers.forSuite(suite).getStartStatistics();
+	}
+
+	@Override
+	public void onFinish(ISuite suite) {
+		SuiteContainers.closeForSuite(suite);
+	}
 }
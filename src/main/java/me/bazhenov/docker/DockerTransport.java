@@ -0,0 +1,197 @@
+package me.bazhenov.docker;
+
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.testng.util.Strings.isNullOrEmpty;
+
+/**
+ * Transport used by {@link Docker} to talk to a Docker daemon.
+ * <p>
+ * There are two implementations available:
+ * <ul>
+ * <li>Engine API over HTTP/1.1 using Unix socket ({@code /var/run/docker.sock}) or plain TCP. Connections are kept
+ * alive and pooled between requests, so no process is forked per operation;</li>
+ * <li>{@code docker} command line utility. Used as a fallback when Engine API is not reachable.</li>
+ * </ul>
+ * Transport could be forced using {@code docker.transport} system property ({@code api} or {@code cli}).
+ */
+@SuppressWarnings("WeakerAccess")
+public interface DockerTransport extends Closeable {
+
+	String TRANSPORT_PROPERTY = "docker.transport";
+	String DEFAULT_SOCKET = "/var/run/docker.sock";
+
+	/**
+	 * Label all containers started by this library are marked with
+	 */
+	String LABEL = "docker";
+
+	/**
+	 * @param image image name
+	 * @return {@code true} if image is available locally
+	 */
+	default boolean isImagePresent(String image) throws IOException, InterruptedException {
+		return getImageId(image) != null;
+	}
+
+	/**
+	 * @param image image name
+	 * @return id (content digest) of a local image or {@code null} if image is not available locally
+	 */
+	String getImageId(String image) throws IOException, InterruptedException;
+
+	/**
+	 * @param images image names
+	 * @return images which are not available locally
+	 */
+	default Set<String> findMissingImages(Collection<String> images) throws IOException, InterruptedException {
+		Set<String> missing = new LinkedHashSet<>();
+		for (String image : images) {
+			if (!isImagePresent(image))
+				missing.add(image);
+		}
+		return missing;
+	}
+
+	/**
+	 * Pulls image from a registry and waits for pull to complete
+	 *
+	 * @throws IOException if image could not be pulled
+	 */
+	void pullImage(String image) throws IOException, InterruptedException;
+
+	/**
+	 * @param label label filter ({@code key} or {@code key=value})
+	 * @return ids of running containers marked with a given label
+	 */
+	default List<String> findContainers(String label) throws IOException, InterruptedException {
+		return findContainers(label, false);
+	}
+
+	/**
+	 * @param label          label filter ({@code key} or {@code key=value})
+	 * @param includeStopped if {@code true} stopped (created, exited) containers are returned as well
+	 * @return ids of containers marked with a given label
+	 */
+	List<String> findContainers(String label, boolean includeStopped) throws IOException, InterruptedException;
+
+	/**
+	 * @param ids container names or ids
+	 * @return JSON array with the same structure as {@code docker inspect} output
+	 */
+	String inspect(String... ids) throws IOException, InterruptedException;
+
+	/**
+	 * Executes command inside running container.
+	 *
+	 * @return stdout of a command
+	 * @throws IOException when command finished with non-zero exit code
+	 */
+	String exec(String containerId, String... command) throws IOException, InterruptedException;
+
+	boolean isNetworkPresent(String network) throws IOException, InterruptedException;
+
+	/**
+	 * @param containerId container id
+	 * @param tailLines   number of last lines to return
+	 * @return last lines of container stdout and stderr
+	 */
+	String getLogs(String containerId, int tailLines) throws IOException, InterruptedException;
+
+	/**
+	 * Opens stream of container stdout and stderr merged. Stream includes all the output since container start and is
+	 * active until container is stopped or stream is closed.
+	 *
+	 * @param containerId container id
+	 * @return stream of container output
+	 */
+	InputStream followLogs(String containerId) throws IOException, InterruptedException;
+
+	/**
+	 * @return {@code true} if {@link #inspect(String...)} of several containers is made as a single call. Otherwise
+	 * containers are better inspected concurrently
+	 */
+	default boolean isInspectBatched() {
+		return false;
+	}
+
+	/**
+	 * @return {@code true} if each followed container holds a host resource (eg. {@code docker logs -f} process), so
+	 * output should be followed only when it is needed
+	 */
+	default boolean isFollowingExpensive() {
+		return false;
+	}
+
+	void createNetwork(String network) throws IOException, InterruptedException;
+
+	void removeNetwork(String network) throws IOException, InterruptedException;
+
+	/**
+	 * Opens stream of events of containers started by this library. Stream consists of JSON objects with the same
+	 * structure as {@code docker events --format '{{json .}}'} output. Subscription is active until stream is closed.
+	 *
+	 * @param sinceMillis timestamp events should be streamed from
+	 * @return stream of events
+	 */
+	InputStream events(long sinceMillis) throws IOException, InterruptedException;
+
+	/**
+	 * Forcibly removes containers as well as their anonymous volumes
+	 */
+	void removeContainers(Collection<String> ids) throws IOException, InterruptedException;
+
+	/**
+	 * Releases resources held by transport (eg. idle connections). Transport is still usable after this method is
+	 * called, resources are reacquired on demand.
+	 */
+	@Override
+	void close() throws IOException;
+
+	/**
+	 * Chooses the best transport available.
+	 * <p>
+	 * Engine API is used if {@code DOCKER_HOST} environment variable or default socket points to a reachable daemon.
+	 * Otherwise {@code docker} command line utility is used.
+	 *
+	 * @param pathToDocker path to the {@code docker} utility used as a fallback
+	 * @return transport
+	 */
+	static DockerTransport detect(String pathToDocker) {
+		Logger log = getLogger(DockerTransport.class);
+		String forced = System.getProperty(TRANSPORT_PROPERTY, "");
+		if ("cli".equalsIgnoreCase(forced)) {
+			return new CliTransport(pathToDocker);
+		}
+
+		String host = System.getenv("DOCKER_HOST");
+		if (isNullOrEmpty(host)) {
+			host = new File(DEFAULT_SOCKET).exists() ? "unix://" + DEFAULT_SOCKET : null;
+		}
+		boolean tlsRequired = !isNullOrEmpty(System.getenv("DOCKER_TLS_VERIFY"));
+		if (host != null && !tlsRequired) {
+			try {
+				EngineApiTransport transport = EngineApiTransport.forHost(host);
+				transport.ping();
+				log.debug("Using Docker Engine API at {}", host);
+				return transport;
+			} catch (IOException | UnsupportedOperationException e) {
+				if ("api".equalsIgnoreCase(forced)) {
+					throw new IllegalStateException("Docker Engine API is not available at: " + host, e);
+				}
+				log.debug("Docker Engine API is not available at {}. Falling back to docker CLI", host, e);
+			}
+		}
+		return new CliTransport(pathToDocker);
+	}
+}
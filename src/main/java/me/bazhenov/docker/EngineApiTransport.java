@@ -0,0 +1,357 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static me.bazhenov.docker.CliTransport.formatTimestamp;
+
+/**
+ * Transport implementation using Docker Engine API over HTTP/1.1.
+ * <p>
+ * Unversioned API paths are used, so the latest API version supported by the daemon is used.
+ *
+ * @see <a href="https://docs.docker.com/engine/api/">Docker Engine API</a>
+ */
+final class EngineApiTransport implements DockerTransport {
+
+	private static final ObjectMapper json = new ObjectMapper();
+
+	private final EngineHttpClient client;
+
+	EngineApiTransport(EngineHttpClient client) {
+		this.client = requireNonNull(client);
+	}
+
+	/**
+	 * @param host daemon address in {@code DOCKER_HOST} format ({@code unix:///var/run/docker.sock} or
+	 *             {@code tcp://host:2375})
+	 * @return transport
+	 */
+	static EngineApiTransport forHost(String host) {
+		URI uri = URI.create(host);
+		if ("unix".equals(uri.getScheme())) {
+			return new EngineApiTransport(new EngineHttpClient(EngineHttpClient.unixSocket(uri.getPath())));
+		} else if ("tcp".equals(uri.getScheme()) || "http".equals(uri.getScheme())) {
+			int port = uri.getPort() > 0 ? uri.getPort() : 2375;
+			return new EngineApiTransport(new EngineHttpClient(EngineHttpClient.tcp(uri.getHost(), port)));
+		}
+		throw new UnsupportedOperationException("Unsupported Docker host: " + host);
+	}
+
+	void ping() throws IOException {
+		request("GET", "/_ping", null, 200);
+	}
+
+	@Override
+	public String getImageId(String image) throws IOException {
+		String path = "/images/" + image + "/json";
+		try (EngineHttpClient.Response response = client.execute("GET", path, null)) {
+			if (response.getStatus() == 404) {
+				return null;
+			}
+			ensureStatus("GET", path, response, 200);
+			return json.readTree(response.readBody()).path("Id").asText();
+		}
+	}
+
+	@Override
+	public void pullImage(String image) throws IOException {
+		String name = image;
+		String tag = "latest";
+		int digest = image.indexOf('@');
+		int colon = image.lastIndexOf(':');
+		if (digest < 0 && colon > image.lastIndexOf('/')) {
+			name = image.substring(0, colon);
+			tag = image.substring(colon + 1);
+		}
+		String path = "/images/create?fromImage=" + URLEncoder.encode(name, "UTF-8") +
+			(digest < 0 ? "&tag=" + URLEncoder.encode(tag, "UTF-8") : "");
+		try (EngineHttpClient.Response response = client.execute("POST", path, null)) {
+			ensureStatus("POST", path, response, 200);
+			// Daemon streams progress until pull is finished. Errors are reported in the stream as well
+			try (MappingIterator<JsonNode> progress = json.readerFor(JsonNode.class).readValues(response.getBody())) {
+				while (progress.hasNextValue()) {
+					JsonNode message = progress.nextValue();
+					if (message.has("error"))
+						throw new IOException("Unable to pull image " + image + ": " + message.path("error").asText());
+				}
+			}
+		}
+	}
+
+	@Override
+	public List<String> findContainers(String label, boolean includeStopped) throws IOException {
+		ObjectNode filters = json.createObjectNode();
+		filters.putArray("label").add(label);
+		String path = "/containers/json?" + (includeStopped ? "all=1&" : "") +
+			"filters=" + URLEncoder.encode(json.writeValueAsString(filters), "UTF-8");
+		List<String> ids = new ArrayList<>();
+		for (JsonNode container : json.readTree(request("GET", path, null, 200)))
+			ids.add(container.path("Id").asText());
+		return ids;
+	}
+
+	@Override
+	public String inspect(String... ids) throws IOException {
+		StringBuilder result = new StringBuilder("[");
+		for (String id : ids) {
+			if (result.length() > 1)
+				result.append(',');
+			result.append(request("GET", "/containers/" + id + "/json", null, 200));
+		}
+		return result.append(']').toString();
+	}
+
+	@Override
+	public String exec(String containerId, String... command) throws IOException {
+		ObjectNode create = json.createObjectNode();
+		create.put("AttachStdout", true);
+		create.put("AttachStderr", true);
+		ArrayNode cmd = create.putArray("Cmd");
+		for (String c : command)
+			cmd.add(c);
+		String execId = json.readTree(request("POST", "/containers/" + containerId + "/exec", create, 201))
+			.path("Id").asText();
+
+		ObjectNode start = json.createObjectNode();
+		start.put("Detach", false);
+		start.put("Tty", false);
+		ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+		ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+		String path = "/exec/" + execId + "/start";
+		try (EngineHttpClient.Response response = client.execute("POST", path, json.writeValueAsBytes(start))) {
+			ensureStatus("POST", path, response, 200);
+			demultiplex(response.getBody(), stdout, stderr);
+		}
+
+		JsonNode result = json.readTree(request("GET", "/exec/" + execId + "/json", null, 200));
+		int exitCode = result.path("ExitCode").asInt();
+		if (exitCode != 0) {
+			throw new IOException("Unable to execute: " + String.join(" ", command) + "\n" +
+				"Exit code: " + exitCode + "\n" +
+				"Stderr: " + new String(stderr.toByteArray(), UTF_8) + "\n" +
+				"Stdout: " + new String(stdout.toByteArray(), UTF_8));
+		}
+		return new String(stdout.toByteArray(), UTF_8);
+	}
+
+	@Override
+	public String getLogs(String containerId, int tailLines) throws IOException {
+		String path = "/containers/" + containerId + "/logs?stdout=1&stderr=1&tail=" + tailLines;
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (EngineHttpClient.Response response = client.execute("GET", path, null)) {
+			ensureStatus("GET", path, response, 200);
+			// Both streams are written to the same buffer, so lines are kept in order
+			demultiplex(response.getBody(), output, output);
+		}
+		return new String(output.toByteArray(), UTF_8);
+	}
+
+	@Override
+	public InputStream followLogs(String containerId) throws IOException {
+		String path = "/containers/" + containerId + "/logs?follow=1&stdout=1&stderr=1";
+		EngineHttpClient.Response response = client.execute("GET", path, null);
+		try {
+			ensureStatus("GET", path, response, 200);
+		} catch (IOException e) {
+			response.close();
+			throw e;
+		}
+		return new MergedFramesInputStream(response.getBody()) {
+
+			@Override
+			public void close() {
+				response.close();
+			}
+		};
+	}
+
+	/**
+	 * Splits multiplexed stream of a container without TTY into stdout and stderr. Each frame has 8 byte header: stream
+	 * type (1 - stdout, 2 - stderr), 3 bytes of padding and big-endian frame size.
+	 */
+	static void demultiplex(InputStream in, ByteArrayOutputStream stdout, ByteArrayOutputStream stderr)
+		throws IOException {
+		byte[] header = new byte[8];
+		byte[] buffer = new byte[8192];
+		while (readFrameHeader(in, header)) {
+			int size = frameSize(header);
+			ByteArrayOutputStream target = header[0] == 2 ? stderr : stdout;
+			while (size > 0) {
+				int read = in.read(buffer, 0, Math.min(size, buffer.length));
+				if (read < 0)
+					throw new EOFException("Unexpected end of stream");
+				target.write(buffer, 0, read);
+				size -= read;
+			}
+		}
+	}
+
+	private static int frameSize(byte[] header) {
+		return (header[4] & 0xFF) << 24 | (header[5] & 0xFF) << 16 | (header[6] & 0xFF) << 8 | header[7] & 0xFF;
+	}
+
+	/**
+	 * Multiplexed stream with frame headers stripped, so stdout and stderr are merged in order
+	 */
+	static class MergedFramesInputStream extends FilterInputStream {
+
+		private final byte[] header = new byte[8];
+		private int remaining;
+
+		MergedFramesInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0
+				? -1
+				: b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			while (remaining == 0) {
+				if (!readFrameHeader(in, header))
+					return -1;
+				remaining = frameSize(header);
+			}
+			int read = in.read(b, off, Math.min(len, remaining));
+			if (read < 0)
+				throw new EOFException("Unexpected end of stream");
+			remaining -= read;
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] buffer = new byte[(int) Math.min(n, 8192)];
+			int read = read(buffer, 0, buffer.length);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public int available() {
+			return 0;
+		}
+	}
+
+	private static boolean readFrameHeader(InputStream in, byte[] header) throws IOException {
+		int offset = 0;
+		while (offset < header.length) {
+			int read = in.read(header, offset, header.length - offset);
+			if (read < 0) {
+				if (offset == 0)
+					return false;
+				throw new EOFException("Unexpected end of stream");
+			}
+			offset += read;
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isNetworkPresent(String network) throws IOException {
+		String path = "/networks/" + network;
+		try (EngineHttpClient.Response response = client.execute("GET", path, null)) {
+			if (response.getStatus() == 404) {
+				return false;
+			}
+			ensureStatus("GET", path, response, 200);
+			return true;
+		}
+	}
+
+	@Override
+	public void createNetwork(String network) throws IOException {
+		ObjectNode body = json.createObjectNode();
+		body.put("Name", network);
+		body.put("CheckDuplicate", true);
+		request("POST", "/networks/create", body, 201);
+	}
+
+	@Override
+	public void removeNetwork(String network) throws IOException {
+		request("DELETE", "/networks/" + network, null, 204, 200);
+	}
+
+	@Override
+	public InputStream events(long sinceMillis) throws IOException {
+		ObjectNode filters = json.createObjectNode();
+		filters.putArray("type").add("container");
+		filters.putArray("label").add(LABEL);
+		String path = "/events?since=" + formatTimestamp(sinceMillis) +
+			"&filters=" + URLEncoder.encode(json.writeValueAsString(filters), "UTF-8");
+		EngineHttpClient.Response response = client.execute("GET", path, null);
+		try {
+			ensureStatus("GET", path, response, 200);
+		} catch (IOException e) {
+			response.close();
+			throw e;
+		}
+		return new FilterInputStream(response.getBody()) {
+
+			@Override
+			public void close() {
+				response.close();
+			}
+		};
+	}
+
+	@Override
+	public void removeContainers(Collection<String> ids) throws IOException {
+		for (String id : ids) {
+			String path = "/containers/" + id + "?force=1&v=1";
+			try (EngineHttpClient.Response response = client.execute("DELETE", path, null)) {
+				// Container started with --rm could be already removed by a daemon
+				if (response.getStatus() != 404)
+					ensureStatus("DELETE", path, response, 204);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		client.close();
+	}
+
+	private String request(String method, String path, JsonNode body, int... expectedStatus) throws IOException {
+		byte[] content = body == null ? null : json.writeValueAsBytes(body);
+		EngineHttpClient.Response response = client.execute(method, path, content);
+		try {
+			ensureStatus(method, path, response, expectedStatus);
+			return response.readBody();
+		} finally {
+			response.close();
+		}
+	}
+
+	private static void ensureStatus(String method, String path, EngineHttpClient.Response response,
+	                                 int... expectedStatus) throws IOException {
+		for (int status : expectedStatus) {
+			if (response.getStatus() == status)
+				return;
+		}
+		throw new IOException("Docker Engine API request failed: " + method + " " + path + "\n" +
+			"Status: " + response.getStatus() + "\n" +
+			"Response: " + response.readBody());
+	}
+}
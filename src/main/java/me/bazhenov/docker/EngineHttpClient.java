@@ -0,0 +1,426 @@
+package me.bazhenov.docker;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Minimal HTTP/1.1 client used to talk to Docker Engine API.
+ * <p>
+ * Connections are kept alive and reused between requests. Only features required by Engine API are supported: fixed
+ * length and chunked bodies, as well as bodies delimited by connection close.
+ */
+final class EngineHttpClient implements Closeable {
+
+	private static final int MAX_IDLE_CONNECTIONS = 8;
+
+	/**
+	 * Opens new connection to a daemon
+	 */
+	interface Connector {
+
+		SocketChannel connect() throws IOException;
+	}
+
+	private final Connector connector;
+	private final Deque<Connection> idle = new ArrayDeque<>();
+
+	EngineHttpClient(Connector connector) {
+		this.connector = requireNonNull(connector);
+	}
+
+	/**
+	 * Performs HTTP request. Returned response should be closed by the caller, so connection can be reused.
+	 *
+	 * @param method HTTP method
+	 * @param path   request path with query string
+	 * @param body   JSON body of a request or {@code null}
+	 * @return response
+	 * @throws IOException in case of any transport error
+	 */
+	Response execute(String method, String path, byte[] body) throws IOException {
+		Connection connection = pollIdle();
+		if (connection != null) {
+			try {
+				return connection.exchange(method, path, body);
+			} catch (IOException e) {
+				connection.close();
+				// Daemon could close idle connection at any moment, but non-idempotent request (eg. container creation)
+				// could be already processed by the daemon if it was sent, so it is not repeated
+				if (connection.sent && !isIdempotent(method))
+					throw e;
+			}
+		}
+		return new Connection(connector.connect()).exchange(method, path, body);
+	}
+
+	private static boolean isIdempotent(String method) {
+		return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method) || "DELETE".equals(method);
+	}
+
+	/**
+	 * @return idle connection not closed by the daemon yet or {@code null}
+	 */
+	private Connection pollIdle() {
+		while (true) {
+			Connection connection;
+			synchronized (idle) {
+				connection = idle.pollFirst();
+			}
+			if (connection == null || !connection.isStale())
+				return connection;
+			connection.close();
+		}
+	}
+
+	private void release(Connection connection) {
+		synchronized (idle) {
+			if (idle.size() < MAX_IDLE_CONNECTIONS) {
+				idle.addFirst(connection);
+				return;
+			}
+		}
+		connection.close();
+	}
+
+	int getIdleConnectionsCount() {
+		synchronized (idle) {
+			return idle.size();
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (idle) {
+			for (Connection connection : idle)
+				connection.close();
+			idle.clear();
+		}
+	}
+
+	static Connector tcp(String host, int port) {
+		return () -> {
+			SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+			channel.socket().setTcpNoDelay(true);
+			return channel;
+		};
+	}
+
+	/**
+	 * Unix domain sockets are supported by {@link SocketChannel} since JDK 16, so all the machinery is accessed using
+	 * reflection.
+	 *
+	 * @throws UnsupportedOperationException if current JVM doesn't support Unix domain sockets
+	 */
+	static Connector unixSocket(String path) {
+		ProtocolFamily family;
+		SocketAddress address;
+		Method open;
+		try {
+			family = StandardProtocolFamily.valueOf("UNIX");
+			Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+			address = (SocketAddress) addressClass.getMethod("of", String.class).invoke(null, path);
+			open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+		} catch (IllegalArgumentException | ReflectiveOperationException e) {
+			throw new UnsupportedOperationException("Unix domain sockets are not supported by this JVM", e);
+		}
+		return () -> {
+			try {
+				SocketChannel channel = (SocketChannel) open.invoke(null, family);
+				channel.connect(address);
+				return channel;
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof IOException)
+					throw (IOException) e.getCause();
+				throw new IOException(e.getCause());
+			} catch (IllegalAccessException e) {
+				throw new IllegalStateException(e);
+			}
+		};
+	}
+
+	private final class Connection implements Closeable {
+
+		private final SocketChannel channel;
+		private final InputStream in;
+		private final OutputStream out;
+
+		/**
+		 * {@code true} if the last request was fully written to the connection
+		 */
+		boolean sent;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			in = new BufferedInputStream(Channels.newInputStream(channel));
+			out = new BufferedOutputStream(Channels.newOutputStream(channel));
+		}
+
+		/**
+		 * Checks without blocking if the daemon closed the connection (or sent something unexpected) while it was idle
+		 */
+		boolean isStale() {
+			try {
+				if (in.available() > 0)
+					return true;
+				channel.configureBlocking(false);
+				try {
+					return channel.read(ByteBuffer.allocate(1)) != 0;
+				} finally {
+					channel.configureBlocking(true);
+				}
+			} catch (IOException e) {
+				return true;
+			}
+		}
+
+		Response exchange(String method, String path, byte[] body) throws IOException {
+			sent = false;
+			StringBuilder request = new StringBuilder()
+				.append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+				.append("Host: docker\r\n");
+			if (body != null) {
+				request.append("Content-Type: application/json\r\n");
+			}
+			request.append("Content-Length: ").append(body == null ? 0 : body.length).append("\r\n\r\n");
+			out.write(request.toString().getBytes(ISO_8859_1));
+			if (body != null) {
+				out.write(body);
+			}
+			out.flush();
+			sent = true;
+
+			String statusLine = readLine(in);
+			if (statusLine == null) {
+				throw new EOFException("Connection closed by daemon");
+			}
+			String[] parts = statusLine.split(" ", 3);
+			if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+				throw new IOException("Malformed HTTP status line: " + statusLine);
+			}
+			int status = Integer.parseInt(parts[1]);
+
+			Map<String, String> headers = new HashMap<>();
+			String line;
+			while ((line = readLine(in)) != null && !line.isEmpty()) {
+				int idx = line.indexOf(':');
+				if (idx > 0) {
+					headers.put(line.substring(0, idx).trim().toLowerCase(), line.substring(idx + 1).trim());
+				}
+			}
+			if (line == null) {
+				throw new EOFException("Connection closed by daemon while reading headers");
+			}
+
+			boolean keepAlive = !"close".equalsIgnoreCase(headers.get("connection"));
+			Body responseBody;
+			String length = headers.get("content-length");
+			if ("HEAD".equals(method) || status == 204 || status == 304) {
+				responseBody = new FixedLengthBody(in, 0);
+			} else if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+				responseBody = new ChunkedBody(in);
+			} else if (length != null) {
+				responseBody = new FixedLengthBody(in, Long.parseLong(length));
+			} else {
+				responseBody = new UntilCloseBody(in);
+				keepAlive = false;
+			}
+			return new Response(this, status, headers, responseBody, keepAlive);
+		}
+
+		@Override
+		public void close() {
+			try {
+				channel.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	final class Response implements Closeable {
+
+		private final Connection connection;
+		private final int status;
+		private final Map<String, String> headers;
+		private final Body body;
+		private final boolean keepAlive;
+		private boolean closed = false;
+
+		private Response(Connection connection, int status, Map<String, String> headers, Body body, boolean keepAlive) {
+			this.connection = connection;
+			this.status = status;
+			this.headers = headers;
+			this.body = body;
+			this.keepAlive = keepAlive;
+		}
+
+		int getStatus() {
+			return status;
+		}
+
+		String getHeader(String name) {
+			return headers.get(name.toLowerCase());
+		}
+
+		InputStream getBody() {
+			return body;
+		}
+
+		/**
+		 * Reads full body of a response and closes it
+		 */
+		String readBody() throws IOException {
+			try {
+				ByteArrayOutputStream result = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = body.read(buffer)) >= 0) {
+					result.write(buffer, 0, read);
+				}
+				return new String(result.toByteArray(), UTF_8);
+			} finally {
+				close();
+			}
+		}
+
+		/**
+		 * Connection is returned to the pool only if the body was fully read. Otherwise (eg. for streaming responses)
+		 * connection is closed.
+		 */
+		@Override
+		public void close() {
+			if (closed)
+				return;
+			closed = true;
+			if (keepAlive && body.eof) {
+				release(connection);
+			} else {
+				connection.close();
+			}
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (b == '\n') {
+				byte[] bytes = line.toByteArray();
+				int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+				return new String(bytes, 0, length, ISO_8859_1);
+			}
+			line.write(b);
+		}
+		return null;
+	}
+
+	private static abstract class Body extends InputStream {
+
+		final InputStream in;
+		boolean eof = false;
+
+		Body(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int read = read(b, 0, 1);
+			return read < 0 ? -1 : b[0] & 0xFF;
+		}
+	}
+
+	private static final class FixedLengthBody extends Body {
+
+		private long remaining;
+
+		FixedLengthBody(InputStream in, long length) {
+			super(in);
+			remaining = length;
+			eof = length <= 0;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0)
+				return -1;
+			int read = in.read(b, off, (int) Math.min(len, remaining));
+			if (read < 0)
+				throw new EOFException("Unexpected end of response body");
+			remaining -= read;
+			eof = remaining <= 0;
+			return read;
+		}
+	}
+
+	private static final class ChunkedBody extends Body {
+
+		private long chunkRemaining = 0;
+
+		ChunkedBody(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (eof)
+				return -1;
+			if (chunkRemaining == 0) {
+				String sizeLine = readLine(in);
+				if (sizeLine == null)
+					throw new EOFException("Unexpected end of chunked body");
+				int extension = sizeLine.indexOf(';');
+				String size = (extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim();
+				chunkRemaining = Long.parseLong(size, 16);
+				if (chunkRemaining == 0) {
+					// Skipping trailers
+					String trailer;
+					while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+					}
+					eof = true;
+					return -1;
+				}
+			}
+			int read = in.read(b, off, (int) Math.min(len, chunkRemaining));
+			if (read < 0)
+				throw new EOFException("Unexpected end of chunked body");
+			chunkRemaining -= read;
+			if (chunkRemaining == 0) {
+				// Each chunk is followed by CRLF
+				readLine(in);
+			}
+			return read;
+		}
+	}
+
+	private static final class UntilCloseBody extends Body {
+
+		UntilCloseBody(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = in.read(b, off, len);
+			if (read < 0)
+				eof = true;
+			return read;
+		}
+	}
+}
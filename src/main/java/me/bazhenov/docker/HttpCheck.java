@@ -0,0 +1,35 @@
+package me.bazhenov.docker;
+
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * HTTP endpoint which should respond before container is considered ready
+ *
+ * @see Container#waitForHttp()
+ */
+@Retention(RUNTIME)
+public @interface HttpCheck {
+
+	/**
+	 * @return container port the endpoint is served on. Should be published. If {@code 0}, the only published port of a
+	 * container is used
+	 */
+	int port() default 0;
+
+	/**
+	 * @return path of the endpoint (eg. {@code /health})
+	 */
+	String path() default "/";
+
+	/**
+	 * @return expected status code
+	 */
+	int status() default 200;
+
+	/**
+	 * @return regular expression searched in response body. Body is not checked if empty
+	 */
+	String body() default "";
+}
@@ -0,0 +1,82 @@
+package me.bazhenov.docker;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import static java.util.Objects.requireNonNull;
+
+@SuppressWarnings("WeakerAccess")
+public final class HttpCheckDef {
+
+	private final int port;
+	private final String path;
+	private final int expectedStatus;
+	private final Pattern bodyPattern;
+
+	/**
+	 * @param port container port the endpoint is served on or {@code 0} to use the only published port
+	 * @param path path of the endpoint
+	 */
+	public HttpCheckDef(int port, String path) {
+		this(port, path, 200, null);
+	}
+
+	/**
+	 * @param port           container port the endpoint is served on or {@code 0} to use the only published port
+	 * @param path           path of the endpoint
+	 * @param expectedStatus expected status code
+	 * @param bodyRegex      regular expression searched in response body or {@code null}
+	 */
+	public HttpCheckDef(int port, String path, int expectedStatus, String bodyRegex) {
+		if (port < 0)
+			throw new IllegalArgumentException("Invalid port: " + port);
+		requireNonNull(path);
+		this.port = port;
+		this.path = path.startsWith("/") ? path : "/" + path;
+		this.expectedStatus = expectedStatus;
+		this.bodyPattern = bodyRegex == null || bodyRegex.isEmpty()
+			? null
+			: Pattern.compile(bodyRegex);
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public int getExpectedStatus() {
+		return expectedStatus;
+	}
+
+	/**
+	 * @return expression searched in response body or {@code null} if body is not checked
+	 */
+	public Pattern getBodyPattern() {
+		return bodyPattern;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		HttpCheckDef that = (HttpCheckDef) o;
+		return port == that.port &&
+			expectedStatus == that.expectedStatus &&
+			Objects.equals(path, that.path) &&
+			Objects.equals(bodyPattern == null ? null : bodyPattern.pattern(),
+				that.bodyPattern == null ? null : that.bodyPattern.pattern());
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(port, path, expectedStatus, bodyPattern == null ? null : bodyPattern.pattern());
+	}
+
+	@Override
+	public String toString() {
+		return "GET :" + port + path + " -> " + expectedStatus + (bodyPattern == null ? "" : " /" + bodyPattern + "/");
+	}
+}
@@ -0,0 +1,171 @@
+package me.bazhenov.docker;
+
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Probes HTTP endpoint of a container until it responds with expected status and body.
+ * <p>
+ * Delay between failed attempts grows according to a {@link Backoff}, so readiness is detected quickly when service is
+ * fast to start, while slow services are not hammered with requests. Response body is always read fully, so
+ * {@link HttpURLConnection} keeps connection alive and reuses it for the next attempt.
+ * <p>
+ * Attempts are blocking, so they could be run on a separate executor, while the scheduler is used only to wait between
+ * attempts. This way slow endpoints don't delay other tasks of the scheduler (eg. startup deadlines).
+ */
+final class HttpProbe {
+
+	static final int CONNECT_TIMEOUT_MS = 1000;
+	static final int READ_TIMEOUT_MS = 5000;
+	private static final int MAX_BODY_SIZE = 64 * 1024;
+	private static final long REPORT_AFTER_MS = 5000;
+
+	private static final Logger log = getLogger(HttpProbe.class);
+
+	private final URL url;
+	private final HttpCheckDef check;
+	private final Backoff backoff;
+	private final CompletableFuture<Void> result = new CompletableFuture<>();
+	private final long startedAt = currentTimeMillis();
+	private volatile String lastFailure = "no attempts made";
+	private int attempt;
+	private boolean reported;
+
+	HttpProbe(URL url, HttpCheckDef check, Backoff backoff) {
+		this.url = requireNonNull(url);
+		this.check = requireNonNull(check);
+		this.backoff = requireNonNull(backoff);
+	}
+
+	/**
+	 * @return future completed when endpoint responds as expected. Cancelling the future stops probing
+	 */
+	CompletableFuture<Void> start(ScheduledExecutorService scheduler) {
+		return start(scheduler, scheduler);
+	}
+
+	/**
+	 * @param scheduler scheduler used to wait between attempts
+	 * @param executor  executor running blocking attempts
+	 * @return future completed when endpoint responds as expected. Cancelling the future stops probing
+	 */
+	CompletableFuture<Void> start(ScheduledExecutorService scheduler, Executor executor) {
+		schedule(scheduler, executor, 0);
+		return result;
+	}
+
+	/**
+	 * @return description of the last failed attempt
+	 */
+	String getLastFailure() {
+		return lastFailure;
+	}
+
+	URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return {@code true} if endpoint responded as expected or probing is stopped
+	 */
+	boolean isDone() {
+		return result.isDone();
+	}
+
+	private void schedule(ScheduledExecutorService scheduler, Executor executor, long delayMs) {
+		try {
+			scheduler.schedule(() -> {
+				try {
+					executor.execute(() -> run(scheduler, executor));
+				} catch (RejectedExecutionException e) {
+					stopped(e);
+				}
+			}, delayMs, MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			stopped(e);
+		}
+	}
+
+	private void stopped(RejectedExecutionException e) {
+		result.completeExceptionally(new IllegalStateException("Probing of " + url + " is stopped. " +
+			"Last failure: " + lastFailure, e));
+	}
+
+	private void run(ScheduledExecutorService scheduler, Executor executor) {
+		if (result.isDone())
+			return;
+		String failure;
+		try {
+			failure = attempt();
+		} catch (IOException e) {
+			failure = e.toString();
+		}
+		if (failure == null) {
+			result.complete(null);
+			return;
+		}
+		lastFailure = failure;
+		if (!reported && currentTimeMillis() - startedAt > REPORT_AFTER_MS) {
+			reported = true;
+			log.warn("Waiting for {} to respond with {}. Last failure: {}", url, check.getExpectedStatus(), failure);
+		}
+		schedule(scheduler, executor, backoff.getDelay(attempt++));
+	}
+
+	/**
+	 * Performs single request
+	 *
+	 * @return {@code null} if endpoint responded as expected, description of a failure otherwise
+	 */
+	String attempt() throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+		connection.setReadTimeout(READ_TIMEOUT_MS);
+		connection.setUseCaches(false);
+		connection.setInstanceFollowRedirects(false);
+		int status = connection.getResponseCode();
+		InputStream stream = status >= 400
+			? connection.getErrorStream()
+			: connection.getInputStream();
+		String body = stream == null
+			? ""
+			: readBody(stream);
+		if (status != check.getExpectedStatus())
+			return "status " + status;
+		if (check.getBodyPattern() != null && !check.getBodyPattern().matcher(body).find())
+			return "body doesn't match /" + check.getBodyPattern() + "/";
+		return null;
+	}
+
+	/**
+	 * Reads response body fully (so connection could be reused), but keeps only first {@link #MAX_BODY_SIZE} bytes
+	 */
+	private static String readBody(InputStream stream) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		try (InputStream in = stream) {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				int kept = Math.min(read, MAX_BODY_SIZE - body.size());
+				if (kept > 0)
+					body.write(buffer, 0, kept);
+			}
+		}
+		return new String(body.toByteArray(), UTF_8);
+	}
+}
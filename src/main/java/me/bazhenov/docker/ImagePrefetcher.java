@@ -0,0 +1,76 @@
+package me.bazhenov.docker;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Objects.requireNonNull;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Pulls missing images before containers are started.
+ * <p>
+ * All the images are checked using single request (when transport supports it) and missing images are pulled in
+ * parallel, so each image is pulled once and pulls overlap with each other instead of with container readiness checks.
+ * Failed pulls are only logged, so {@code docker run} is able to retry it and report an error.
+ */
+final class ImagePrefetcher {
+
+	static final int MAX_PARALLEL_PULLS = 4;
+
+	private static final Logger log = getLogger(ImagePrefetcher.class);
+
+	private final DockerTransport transport;
+
+	ImagePrefetcher(DockerTransport transport) {
+		this.transport = requireNonNull(transport);
+	}
+
+	/**
+	 * @param images images needed by containers (duplicates are allowed)
+	 * @return pull time in ms of each image pulled successfully
+	 */
+	Map<String, Long> prefetch(Collection<String> images) throws IOException, InterruptedException {
+		Set<String> missing = transport.findMissingImages(new LinkedHashSet<>(images));
+		if (missing.isEmpty())
+			return Collections.emptyMap();
+
+		log.info("Pulling {} missing images: {}", missing.size(), missing);
+		long startedAt = currentTimeMillis();
+		ExecutorService pullers = Executors.newFixedThreadPool(Math.min(missing.size(), MAX_PARALLEL_PULLS), r -> {
+			Thread thread = new Thread(r, "docker-image-pull");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			AtomicInteger completed = new AtomicInteger();
+			Map<String, Future<Long>> pulls = new LinkedHashMap<>();
+			for (String image : missing) {
+				pulls.put(image, pullers.submit(() -> {
+					long pullStartedAt = currentTimeMillis();
+					transport.pullImage(image);
+					long duration = currentTimeMillis() - pullStartedAt;
+					log.info("Pulled image {} in {}ms ({}/{})", image, duration, completed.incrementAndGet(), missing.size());
+					return duration;
+				}));
+			}
+
+			Map<String, Long> durations = new LinkedHashMap<>();
+			for (Map.Entry<String, Future<Long>> pull : pulls.entrySet()) {
+				try {
+					durations.put(pull.getKey(), pull.getValue().get());
+				} catch (ExecutionException e) {
+					log.warn("Unable to pull image {}", pull.getKey(), e.getCause());
+				}
+			}
+			log.info("{} of {} images pulled in {}ms", durations.size(), missing.size(), currentTimeMillis() - startedAt);
+			return durations;
+		} finally {
+			pullers.shutdownNow();
+		}
+	}
+}
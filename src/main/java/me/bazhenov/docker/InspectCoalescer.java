@@ -0,0 +1,176 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.function.Function.identity;
+
+/**
+ * Coalesces {@code docker inspect} requests of concurrent callers.
+ * <p>
+ * Requests arriving within a short window are collected and issued as a single {@code docker inspect id1 id2 ...} call
+ * (each container is requested once, even if several callers are interested in it). Parsed containers are handed back
+ * to the waiting callers. If transport can't inspect several containers in a single call (see
+ * {@link DockerTransport#isInspectBatched()}), containers of the batch are inspected concurrently instead. If batch fails (eg. one of the containers is already removed), containers are inspected one by
+ * one, so the failure is reported only to the callers of the missing container.
+ * <p>
+ * Fields of containers are extracted using a given {@link InspectExtractor}. Callers of the same container share the
+ * parsed {@link JsonNode}, so it should not be modified.
+ */
+final class InspectCoalescer {
+
+	static final long WINDOW_MS = 5;
+
+	private final DockerTransport transport;
+	private final InspectExtractor extractor;
+	private final Executor executor;
+	private final long windowMs;
+	private Map<String, CompletableFuture<JsonNode>> pending = new LinkedHashMap<>();
+
+	/**
+	 * @param extractor extractor of container fields handed to the callers
+	 * @param executor  executor running blocking inspect calls
+	 */
+	InspectCoalescer(DockerTransport transport, InspectExtractor extractor, Executor executor) {
+		this(transport, extractor, executor, WINDOW_MS);
+	}
+
+	InspectCoalescer(DockerTransport transport, InspectExtractor extractor, Executor executor, long windowMs) {
+		this.transport = requireNonNull(transport);
+		this.extractor = requireNonNull(extractor);
+		this.executor = requireNonNull(executor);
+		this.windowMs = windowMs;
+	}
+
+	/**
+	 * @param id container id or name
+	 * @return future completed with container object having the fields selected by the extractor
+	 */
+	CompletableFuture<JsonNode> inspect(String id) {
+		CompletableFuture<JsonNode> result;
+		boolean first;
+		synchronized (this) {
+			first = pending.isEmpty();
+			result = pending.computeIfAbsent(id, k -> new CompletableFuture<>());
+		}
+		if (first) {
+			try {
+				executor.execute(this::flushAfterWindow);
+			} catch (RejectedExecutionException e) {
+				fail(drain(), e);
+			}
+		}
+		// Each caller gets its own future, so the shared one is not cancelled by one of the callers
+		return result.thenApply(identity());
+	}
+
+	private synchronized Map<String, CompletableFuture<JsonNode>> drain() {
+		Map<String, CompletableFuture<JsonNode>> batch = pending;
+		pending = new LinkedHashMap<>();
+		return batch;
+	}
+
+	private void flushAfterWindow() {
+		Map<String, CompletableFuture<JsonNode>> batch = null;
+		try {
+			Thread.sleep(windowMs);
+			batch = drain();
+			flush(batch);
+		} catch (InterruptedException e) {
+			// Requests already completed are not affected
+			fail(batch == null ? drain() : batch, e);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void flush(Map<String, CompletableFuture<JsonNode>> batch) throws InterruptedException {
+		if (batch.isEmpty())
+			return;
+		if (batch.size() > 1 && !transport.isInspectBatched()) {
+			inspectConcurrently(batch);
+			return;
+		}
+		JsonNode root = null;
+		try {
+			root = extractor.extract(transport.inspect(batch.keySet().toArray(new String[0])));
+		} catch (IOException e) {
+			if (batch.size() == 1) {
+				fail(batch, e);
+				return;
+			}
+		}
+		for (Map.Entry<String, CompletableFuture<JsonNode>> request : batch.entrySet()) {
+			JsonNode container = root == null
+				? null
+				: find(root, request.getKey());
+			if (container != null)
+				request.getValue().complete(container);
+			else
+				inspectOne(request.getKey(), request.getValue());
+		}
+	}
+
+	private void inspectOne(String id, CompletableFuture<JsonNode> result) throws InterruptedException {
+		try {
+			result.complete(extractor.extract(transport.inspect(id)).path(0));
+		} catch (IOException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	private void inspectConcurrently(Map<String, CompletableFuture<JsonNode>> batch) {
+		for (Map.Entry<String, CompletableFuture<JsonNode>> request : batch.entrySet()) {
+			try {
+				executor.execute(() -> {
+					try {
+						inspectOne(request.getKey(), request.getValue());
+					} catch (InterruptedException e) {
+						request.getValue().completeExceptionally(e);
+						Thread.currentThread().interrupt();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				request.getValue().completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Resolves the key the same way Docker does: full id first, then container name, then id prefix.
+	 *
+	 * @param key container id, its unique prefix or container name
+	 * @return container object matching the key or {@code null} if there is no such container or prefix is ambiguous
+	 */
+	static JsonNode find(JsonNode root, String key) {
+		if (key.isEmpty())
+			return null;
+		for (JsonNode container : root) {
+			if (container.path("Id").asText().equals(key))
+				return container;
+		}
+		for (JsonNode container : root) {
+			if (container.path("Name").asText().equals("/" + key))
+				return container;
+		}
+		JsonNode found = null;
+		for (JsonNode container : root) {
+			if (container.path("Id").asText().startsWith(key)) {
+				if (found != null)
+					return null;
+				found = container;
+			}
+		}
+		return found;
+	}
+
+	private static void fail(Map<String, CompletableFuture<JsonNode>> batch, Throwable e) {
+		batch.values().forEach(f -> f.completeExceptionally(e));
+	}
+}
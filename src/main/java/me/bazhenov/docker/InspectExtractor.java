@@ -0,0 +1,111 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.fasterxml.jackson.core.JsonToken.FIELD_NAME;
+import static com.fasterxml.jackson.core.JsonToken.START_ARRAY;
+import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
+
+/**
+ * Extracts selected fields of containers from {@code docker inspect} output without materializing the whole document.
+ * <p>
+ * Inspect output of a container with many mounts, environment variables or labels takes tens of kilobytes, while only a
+ * few fields are needed to check its state. Output is read using streaming {@link JsonParser}: only values on the
+ * selected paths are materialized, everything else is skipped by the parser. Resulting containers have the same
+ * structure as in {@code docker inspect} output, so they are navigated as usual.
+ */
+final class InspectExtractor {
+
+	/**
+	 * Containers are extracted as a whole
+	 */
+	static final InspectExtractor ALL = new InspectExtractor();
+
+	/**
+	 * Fields needed to check container state and published ports
+	 */
+	static final InspectExtractor STATE = new InspectExtractor("Id", "Name", "State", "NetworkSettings/Ports");
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+	private static final JsonNodeFactory nodes = JsonNodeFactory.instance;
+
+	private final Selection selection = new Selection();
+
+	/**
+	 * @param paths paths of the fields to be extracted, eg. {@code NetworkSettings/Ports}. Values on the paths are
+	 *              extracted as a whole. If no paths given, containers are extracted as a whole
+	 */
+	InspectExtractor(String... paths) {
+		for (String path : paths) {
+			Selection current = selection;
+			for (String field : path.split("/"))
+				current = current.children.computeIfAbsent(field, k -> new Selection());
+		}
+	}
+
+	/**
+	 * @param json {@code docker inspect} output
+	 * @return array of containers having only the selected fields
+	 */
+	ArrayNode extract(String json) throws IOException {
+		if (selection.children.isEmpty()) {
+			JsonNode root = mapper.readTree(json);
+			if (root == null || !root.isArray())
+				throw new IOException("Array of containers expected in docker inspect output");
+			return (ArrayNode) root;
+		}
+		ArrayNode result = nodes.arrayNode();
+		try (JsonParser parser = mapper.getFactory().createParser(json)) {
+			if (parser.nextToken() != START_ARRAY)
+				throw new IOException("Array of containers expected in docker inspect output");
+			JsonToken token;
+			while ((token = parser.nextToken()) == START_OBJECT)
+				result.add(extractObject(parser, selection));
+			if (token != JsonToken.END_ARRAY)
+				throw new IOException("Unexpected token in docker inspect output: " + token);
+		}
+		return result;
+	}
+
+	/**
+	 * Reads an object the parser is positioned at, keeping only the selected fields
+	 */
+	private static ObjectNode extractObject(JsonParser parser, Selection selection) throws IOException {
+		ObjectNode result = nodes.objectNode();
+		while (parser.nextToken() == FIELD_NAME) {
+			String name = parser.getCurrentName();
+			Selection field = selection.children.get(name);
+			JsonToken token = parser.nextToken();
+			if (field == null) {
+				parser.skipChildren();
+			} else if (field.children.isEmpty()) {
+				JsonNode value = mapper.readTree(parser);
+				result.set(name, value == null ? NullNode.getInstance() : value);
+			} else if (token == START_OBJECT) {
+				result.set(name, extractObject(parser, field));
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return result;
+	}
+
+	private static final class Selection {
+
+		/**
+		 * Fields to be extracted. Value is extracted as a whole if empty
+		 */
+		final Map<String, Selection> children = new HashMap<>();
+	}
+}
@@ -0,0 +1,106 @@
+package me.bazhenov.docker;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Matcher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Matches container output against a set of {@link LogPatternDef} incrementally.
+ * <p>
+ * Output is fed in arbitrary chunks as it arrives. Only the current incomplete line is buffered (up to
+ * {@link #MAX_LINE_LENGTH} bytes, the rest of a longer line is ignored), so memory consumption doesn't depend on the
+ * output size. Each complete line is checked against the patterns not satisfied yet, so readiness is reported as soon as
+ * the last expected line is written by a container.
+ * <p>
+ * Output should be fed by a single thread, while unsatisfied patterns could be described by any thread.
+ */
+final class LogMatcher {
+
+	static final int MAX_LINE_LENGTH = 16 * 1024;
+
+	private final List<LogPatternDef> patterns;
+	private final int[] remaining;
+	private final List<Matcher> matchers = new ArrayList<>();
+	private final CompletableFuture<Void> matched = new CompletableFuture<>();
+	private byte[] line = new byte[256];
+	private int length;
+	private int unsatisfied;
+
+	LogMatcher(List<LogPatternDef> patterns) {
+		if (patterns.isEmpty())
+			throw new IllegalArgumentException("At least one pattern is required");
+		this.patterns = new ArrayList<>(patterns);
+		remaining = new int[patterns.size()];
+		for (int i = 0; i < patterns.size(); i++) {
+			remaining[i] = patterns.get(i).getOccurrences();
+			matchers.add(patterns.get(i).getPattern().matcher(""));
+		}
+		unsatisfied = patterns.size();
+	}
+
+	/**
+	 * @return future completed when all the patterns are matched required number of times
+	 */
+	CompletableFuture<Void> getMatched() {
+		return matched;
+	}
+
+	void feed(byte[] chunk, int offset, int count) {
+		if (matched.isDone())
+			return;
+		int end = offset + count;
+		for (int i = offset; i < end; i++) {
+			byte b = chunk[i];
+			if (b == '\n') {
+				onLine();
+				if (matched.isDone())
+					return;
+			} else if (length < MAX_LINE_LENGTH) {
+				if (length == line.length)
+					line = Arrays.copyOf(line, Math.min(line.length * 2, MAX_LINE_LENGTH));
+				line[length++] = b;
+			}
+		}
+	}
+
+	/**
+	 * Signals end of the output. The last line without line separator is checked as well.
+	 */
+	void finish() {
+		if (length > 0)
+			onLine();
+		matched.completeExceptionally(new IllegalStateException("Container output is finished before expected lines " +
+			"appeared. Still waiting for: " + describeUnsatisfied()));
+	}
+
+	private synchronized void onLine() {
+		int size = length > 0 && line[length - 1] == '\r' ? length - 1 : length;
+		length = 0;
+		String text = new String(line, 0, size, UTF_8);
+		for (int i = 0; i < remaining.length; i++) {
+			if (remaining[i] > 0 && matchers.get(i).reset(text).find() && --remaining[i] == 0)
+				unsatisfied--;
+		}
+		if (unsatisfied == 0)
+			matched.complete(null);
+	}
+
+	/**
+	 * @return patterns which are not matched required number of times yet
+	 */
+	synchronized String describeUnsatisfied() {
+		StringBuilder result = new StringBuilder();
+		for (int i = 0; i < remaining.length; i++) {
+			if (remaining[i] > 0) {
+				if (result.length() > 0)
+					result.append(", ");
+				result.append(patterns.get(i)).append(" (").append(remaining[i]).append(" more)");
+			}
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,25 @@
+package me.bazhenov.docker;
+
+import java.lang.annotation.Retention;
+
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Line of a container output which should appear before container is considered ready
+ *
+ * @see Container#waitForLog()
+ */
+@Retention(RUNTIME)
+public @interface LogPattern {
+
+	/**
+	 * @return regular expression searched in each line of a container output
+	 */
+	String value();
+
+	/**
+	 * @return number of lines which should match the expression (eg. MySQL image reports readiness twice: for the
+	 * temporary init server and for the real one)
+	 */
+	int occurrences() default 1;
+}
@@ -0,0 +1,59 @@
+package me.bazhenov.docker;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import static java.util.Objects.requireNonNull;
+
+@SuppressWarnings("WeakerAccess")
+public final class LogPatternDef {
+
+	private final Pattern pattern;
+	private final int occurrences;
+
+	public LogPatternDef(String regex) {
+		this(regex, 1);
+	}
+
+	public LogPatternDef(String regex, int occurrences) {
+		if (occurrences <= 0)
+			throw new IllegalArgumentException("Occurrences should be positive: " + occurrences);
+		this.pattern = Pattern.compile(requireNonNull(regex));
+		this.occurrences = occurrences;
+	}
+
+	/**
+	 * @return expression searched in each line of a container output
+	 */
+	public Pattern getPattern() {
+		return pattern;
+	}
+
+	/**
+	 * @return number of lines which should match the expression
+	 */
+	public int getOccurrences() {
+		return occurrences;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+		LogPatternDef that = (LogPatternDef) o;
+		return occurrences == that.occurrences &&
+			Objects.equals(pattern.pattern(), that.pattern.pattern());
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(pattern.pattern(), occurrences);
+	}
+
+	@Override
+	public String toString() {
+		return occurrences == 1
+			? "/" + pattern.pattern() + "/"
+			: "/" + pattern.pattern() + "/ x" + occurrences;
+	}
+}
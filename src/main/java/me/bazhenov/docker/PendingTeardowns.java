@@ -0,0 +1,98 @@
+package me.bazhenov.docker;
+
+import org.slf4j.Logger;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.ConcurrentHashMap.newKeySet;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Registry of background teardowns (container and network removals).
+ * <p>
+ * Teardown threads are daemon ones, so they don't prevent JVM from exiting. Instead JVM shutdown hook waits for
+ * teardowns pending in the {@link #global()} registry to complete (up to {@code docker.teardown.timeout} milliseconds),
+ * so containers are not left running when tests finish before their removal does.
+ */
+final class PendingTeardowns {
+
+	static final String TIMEOUT_PROPERTY = "docker.teardown.timeout";
+	private static final long DEFAULT_TIMEOUT_MS = 60_000;
+
+	private static final Logger log = getLogger(PendingTeardowns.class);
+	private final Set<CompletableFuture<?>> pending = newKeySet();
+	private final AtomicBoolean hookRegistered = new AtomicBoolean();
+	private final boolean awaitedOnShutdown;
+
+	/**
+	 * Creates registry which is not awaited on JVM shutdown
+	 */
+	PendingTeardowns() {
+		this(false);
+	}
+
+	private PendingTeardowns(boolean awaitedOnShutdown) {
+		this.awaitedOnShutdown = awaitedOnShutdown;
+	}
+
+	/**
+	 * @return registry of this JVM awaited on its shutdown
+	 */
+	static PendingTeardowns global() {
+		return Global.instance;
+	}
+
+	/**
+	 * Registers teardown to be awaited
+	 *
+	 * @return the same future
+	 */
+	<T> CompletableFuture<T> track(CompletableFuture<T> teardown) {
+		if (awaitedOnShutdown && hookRegistered.compareAndSet(false, true)) {
+			try {
+				Runtime.getRuntime().addShutdownHook(new Thread(() ->
+					awaitAll(Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MS)), "docker-teardown-hook"));
+			} catch (IllegalStateException e) {
+				// JVM is already shutting down
+				log.debug("Unable to register shutdown hook", e);
+			}
+		}
+		pending.add(teardown);
+		teardown.whenComplete((ignored, e) -> pending.remove(teardown));
+		return teardown;
+	}
+
+	/**
+	 * Waits for all the pending teardowns. Failures of teardowns are not reported, they are logged by the owners.
+	 *
+	 * @return {@code true} if all the teardowns are completed in time
+	 */
+	boolean awaitAll(long timeoutMs) {
+		CompletableFuture<?>[] teardowns = pending.toArray(new CompletableFuture<?>[0]);
+		if (teardowns.length == 0)
+			return true;
+		log.info("Waiting for {} background teardowns to complete", teardowns.length);
+		try {
+			CompletableFuture.allOf(teardowns).get(timeoutMs, MILLISECONDS);
+		} catch (ExecutionException e) {
+			log.debug("Some of teardowns failed", e.getCause());
+		} catch (TimeoutException e) {
+			log.warn("Background teardowns are not completed in {}ms, some containers could be left running", timeoutMs);
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return true;
+	}
+
+	private static final class Global {
+
+		static final PendingTeardowns instance = new PendingTeardowns(true);
+	}
+}
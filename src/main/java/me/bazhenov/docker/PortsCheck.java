@@ -0,0 +1,23 @@
+package me.bazhenov.docker;
+
+/**
+ * Defines how library checks that published ports of a container are ready to accept connections.
+ *
+ * @see ContainerDefinition#setPortsCheck(PortsCheck)
+ * @see Container#portsCheck()
+ */
+public enum PortsCheck {
+
+	/**
+	 * Ports are considered open when there are listening sockets in the container network namespace (see
+	 * {@code /proc/net/tcp}). Requires {@code sh} in the image if container process is not visible from the host.
+	 */
+	LISTENING_SOCKETS,
+
+	/**
+	 * Published host ports are probed using TCP connects from the host. Proves that port is reachable through the host
+	 * mapping, works for images without {@code sh} (eg. distroless). Ports are probed at the daemon host if
+	 * {@code DOCKER_HOST} points to a remote daemon.
+	 */
+	HOST_CONNECT
+}
@@ -0,0 +1,127 @@
+package me.bazhenov.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.BitSet;
+
+/**
+ * Parser of {@code /proc/net/tcp} and {@code /proc/net/tcp6} tables.
+ * <p>
+ * Only sockets in {@code LISTEN} state ({@code 0A}) are reported. Parser works directly on bytes using internal
+ * buffer which is reused between calls, so the instance is not thread safe. Ports are collected in a {@link BitSet}
+ * indexed by port number.
+ * <p>
+ * Table format:
+ * <pre>
+ *   sl  local_address rem_address   st tx_queue rx_queue tr tm-&gt;when retrnsmt   uid  timeout inode
+ *    0: 00000000:04D2 00000000:0000 0A 00000000:00000000 00:00000000 00000000     0        0 15662 1 ...
+ * </pre>
+ */
+final class ProcNetTcpParser {
+
+	private static final int LISTEN = 0x0A;
+
+	private byte[] buffer = new byte[16 * 1024];
+
+	/**
+	 * Reads table from the given file. Missing file is treated as empty table.
+	 *
+	 * @param result set where listening ports will be added
+	 */
+	void read(Path file, BitSet result) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			read(in, result);
+		} catch (NoSuchFileException e) {
+			// no table - no listening sockets
+		}
+	}
+
+	void read(InputStream in, BitSet result) throws IOException {
+		int length = 0;
+		int read;
+		while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+			length += read;
+			if (length == buffer.length) {
+				byte[] larger = new byte[buffer.length * 2];
+				System.arraycopy(buffer, 0, larger, 0, length);
+				buffer = larger;
+			}
+		}
+		parse(buffer, 0, length, result);
+	}
+
+	/**
+	 * Parses table. The first line is expected to be a header.
+	 *
+	 * @param result set where listening ports will be added
+	 */
+	static void parse(byte[] table, int offset, int length, BitSet result) {
+		int end = offset + length;
+		int i = skipLine(table, offset, end);
+		while (i < end) {
+			// sl
+			i = skipSpaces(table, i, end);
+			i = skipToken(table, i, end);
+			// local_address
+			i = skipSpaces(table, i, end);
+			while (i < end && table[i] != ':' && table[i] != '\n')
+				i++;
+			if (i >= end || table[i] != ':') {
+				// malformed or empty line
+				i = skipLine(table, i, end);
+				continue;
+			}
+			i++;
+			int port = 0;
+			int digit;
+			while (i < end && (digit = hex(table[i])) >= 0) {
+				port = port << 4 | digit;
+				i++;
+			}
+			// rem_address
+			i = skipSpaces(table, i, end);
+			i = skipToken(table, i, end);
+			// st
+			i = skipSpaces(table, i, end);
+			int state = 0;
+			while (i < end && (digit = hex(table[i])) >= 0) {
+				state = state << 4 | digit;
+				i++;
+			}
+			if (state == LISTEN && port > 0 && port <= 0xFFFF)
+				result.set(port);
+			i = skipLine(table, i, end);
+		}
+	}
+
+	private static int hex(byte b) {
+		if (b >= '0' && b <= '9')
+			return b - '0';
+		if (b >= 'A' && b <= 'F')
+			return b - 'A' + 10;
+		if (b >= 'a' && b <= 'f')
+			return b - 'a' + 10;
+		return -1;
+	}
+
+	private static int skipSpaces(byte[] table, int i, int end) {
+		while (i < end && table[i] == ' ')
+			i++;
+		return i;
+	}
+
+	private static int skipToken(byte[] table, int i, int end) {
+		while (i < end && table[i] != ' ' && table[i] != '\n')
+			i++;
+		return i;
+	}
+
+	private static int skipLine(byte[] table, int i, int end) {
+		while (i < end && table[i] != '\n')
+			i++;
+		return i + 1;
+	}
+}
@@ -0,0 +1,613 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+import static java.lang.System.currentTimeMillis;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.Files.readAllBytes;
+import static java.util.Objects.requireNonNull;
+import static me.bazhenov.docker.PortsCheck.HOST_CONNECT;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Single thread monitoring readiness of all the containers being started.
+ * <p>
+ * All pending containers due to be checked are checked together on each tick: states of containers not covered by
+ * events are requested using single {@code docker inspect} call, then listening ports of running containers are checked.
+ * When container is ready corresponding future is completed. So the cost of checks depends on the number of ticks, not on
+ * the number of containers. Containers with startup time known from previous runs are checked mostly around the time
+ * they are expected to be ready (see {@link #pollDelay(long, long, long)}).
+ * <p>
+ * Health status of containers waiting for {@code HEALTHCHECK} is taken from {@code health_status} events. Containers
+ * are inspected only once in a while as a safety net, unless events are not available.
+ * <p>
+ * Containers using {@link PortsCheck#HOST_CONNECT} are probed with non-blocking connects multiplexed on the single
+ * {@link Selector} owned by the monitor thread.
+ */
+final class ReadinessMonitor implements Closeable {
+
+	private static final Logger log = getLogger(ReadinessMonitor.class);
+
+	private static final long STATE_CHECK_INTERVAL_MS = 100;
+	private static final long PORTS_CHECK_INTERVAL_MS = 200;
+	private static final long EVENT_TIMEOUT_MS = 1000;
+	private static final long REPORT_AFTER_MS = 5000;
+	private static final long DENSE_INTERVAL_MS = 50;
+	private static final long DENSE_WINDOW_MS = 4 * DENSE_INTERVAL_MS;
+	private static final long MAX_SPARSE_INTERVAL_MS = 1000;
+	private static final long HEALTH_POLL_INTERVAL_MS = 1000;
+
+	private final DockerTransport transport;
+	private final String portsHost;
+	private final Map<String, PendingContainer> monitored = new ConcurrentHashMap<>();
+	private final Object lock = new Object();
+	private Generation generation;
+
+	ReadinessMonitor(DockerTransport transport) {
+		this(transport, InetAddress.getLoopbackAddress().getHostAddress());
+	}
+
+	/**
+	 * @param portsHost host published ports are probed at (see {@link PortsCheck#HOST_CONNECT})
+	 */
+	ReadinessMonitor(DockerTransport transport, String portsHost) {
+		this.transport = requireNonNull(transport);
+		this.portsHost = requireNonNull(portsHost);
+	}
+
+	/**
+	 * Registers container for monitoring
+	 *
+	 * @param cid        container id
+	 * @param definition container definition
+	 * @param tcpFiles   network tables to be checked inside a container
+	 * @param events     container event tracker or {@code null} if events are not available
+	 * @return future completed when container is running and all published ports are open
+	 */
+	CompletableFuture<Void> register(String cid, ContainerDefinition definition, List<String> tcpFiles,
+	                                 ContainerEventTracker events) {
+		return register(cid, definition, tcpFiles, events, -1);
+	}
+
+	/**
+	 * @param expectedReadyMs time container is expected to become ready based on previous runs or {@code -1} if unknown.
+	 *                        Used to check container mostly around that time
+	 * @see #register(String, ContainerDefinition, List, ContainerEventTracker)
+	 */
+	CompletableFuture<Void> register(String cid, ContainerDefinition definition, List<String> tcpFiles,
+	                                 ContainerEventTracker events, long expectedReadyMs) {
+		PendingContainer container = new PendingContainer(cid, definition, tcpFiles, events, expectedReadyMs);
+		monitored.put(cid, container);
+		container.ready.whenComplete((ignored, e) -> monitored.remove(cid, container));
+		Generation g;
+		synchronized (lock) {
+			if (generation == null) {
+				generation = new Generation();
+				Generation started = generation;
+				Thread thread = new Thread(() -> run(started), "docker-readiness-monitor");
+				thread.setDaemon(true);
+				started.thread = thread;
+				thread.start();
+			}
+			g = generation;
+			g.registrations.add(container);
+		}
+		g.wakeUp(cid);
+		return container.ready;
+	}
+
+	/**
+	 * @return description of what a container is waiting for according to the last check (eg. which ports are open) or
+	 * {@code null} if container is not monitored
+	 */
+	String describe(String cid) {
+		PendingContainer container = monitored.get(cid);
+		return container == null
+			? null
+			: container.status;
+	}
+
+	/**
+	 * Forces a container to be checked immediately (eg. when its event is received)
+	 *
+	 * @param cid container id
+	 */
+	void wakeUp(String cid) {
+		Generation g;
+		synchronized (lock) {
+			g = generation;
+		}
+		if (g != null)
+			g.wakeUp(cid);
+	}
+
+	/**
+	 * Monitor loop. Container checks are performed on ticks, while host connect probes are driven by the selector
+	 * between ticks.
+	 */
+	private void run(Generation g) {
+		Map<String, PendingContainer> pending = new LinkedHashMap<>();
+		Thread self = Thread.currentThread();
+		try (Selector s = Selector.open()) {
+			g.selector = s;
+			long nextTickAt = 0;
+			while (!self.isInterrupted()) {
+				PendingContainer registered;
+				while ((registered = g.registrations.poll()) != null) {
+					pending.put(registered.id, registered);
+				}
+				removeCompleted(pending);
+
+				long now = currentTimeMillis();
+				Set<String> woken = g.drainWoken();
+				if (!woken.isEmpty() || now >= nextTickAt) {
+					nextTickAt = pending.isEmpty()
+						? Long.MAX_VALUE
+						: tick(pending.values(), now, woken);
+					removeCompleted(pending);
+				}
+
+				long nextDeadline = nextTickAt;
+				for (PendingContainer c : pending.values()) {
+					for (ConnectProbe probe : c.probes) {
+						probe.poll(s, now);
+						nextDeadline = Math.min(nextDeadline, probe.getDeadline());
+					}
+				}
+
+				long timeout = nextDeadline == Long.MAX_VALUE ? 0 : Math.max(1, nextDeadline - now);
+				if (s.select(timeout) > 0) {
+					now = currentTimeMillis();
+					for (SelectionKey key : s.selectedKeys())
+						((ConnectProbe) key.attachment()).onSelected(now);
+					s.selectedKeys().clear();
+				}
+				completeReachable(pending.values());
+			}
+		} catch (IOException e) {
+			log.error("Readiness monitor failed", e);
+		} finally {
+			g.selector = null;
+			// Monitor could fail on its own, in this case next registration starts a new thread
+			synchronized (lock) {
+				if (generation == g)
+					generation = null;
+			}
+			PendingContainer registered;
+			while ((registered = g.registrations.poll()) != null)
+				pending.put(registered.id, registered);
+			for (PendingContainer c : pending.values()) {
+				c.ready.completeExceptionally(new InterruptedException("Readiness monitor is stopped"));
+				c.closeProbes();
+			}
+			g.terminated.complete(null);
+		}
+	}
+
+	private static void removeCompleted(Map<String, PendingContainer> pending) {
+		Iterator<PendingContainer> it = pending.values().iterator();
+		while (it.hasNext()) {
+			PendingContainer c = it.next();
+			if (c.ready.isDone()) {
+				c.closeProbes();
+				it.remove();
+			}
+		}
+	}
+
+	private static void completeReachable(Collection<PendingContainer> pending) {
+		for (PendingContainer c : pending) {
+			if (!c.probes.isEmpty() && c.probes.stream().allMatch(ConnectProbe::isReachable))
+				c.ready.complete(null);
+		}
+	}
+
+	/**
+	 * Checks pending containers which are due to be checked
+	 *
+	 * @param woken containers to be checked regardless of their schedule (eg. their event is received)
+	 * @return time of the next tick
+	 */
+	private long tick(Collection<PendingContainer> pending, long now, Set<String> woken) {
+		List<PendingContainer> due = new ArrayList<>();
+		for (PendingContainer c : pending) {
+			if (woken.contains(c.id) || c.nextCheckAt <= now)
+				due.add(c);
+		}
+		try {
+			updateStates(due);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return now;
+		} catch (Exception e) {
+			log.warn("Unable to check containers state", e);
+		}
+
+		for (PendingContainer c : due) {
+			c.nextCheckAt = now + pollDelay(c.expectedReadyMs, now - c.registeredAt, c.running
+				? PORTS_CHECK_INTERVAL_MS
+				: STATE_CHECK_INTERVAL_MS);
+			if (c.ready.isDone() || !c.running)
+				continue;
+			if (c.definition.isWaitForHealthy() && !c.healthy) {
+				c.status = "waiting for container to become healthy";
+				if (c.shouldReport(now))
+					log.warn("Waiting for container {} to become healthy", c.id);
+				continue;
+			}
+			try {
+				if (!shouldWaitForOpenPorts(c.definition) || arePortsOpen(c)) {
+					c.status = "ports are open";
+					c.ready.complete(null);
+				} else if (c.definition.getPortsCheck() == HOST_CONNECT && c.probes.isEmpty() && c.hostPorts != null) {
+					startProbes(c);
+				} else if (c.shouldReport(now)) {
+					log.warn("Waiting for ports {} to open in container {}", c.definition.getPublishedPorts().keySet(), c.id);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return now;
+			} catch (Exception e) {
+				c.ready.completeExceptionally(e);
+			}
+		}
+
+		long nextTickAt = Long.MAX_VALUE;
+		for (PendingContainer c : pending) {
+			if (!c.ready.isDone())
+				nextTickAt = Math.min(nextTickAt, c.nextCheckAt);
+		}
+		return nextTickAt;
+	}
+
+	/**
+	 * Computes delay before the next check of a container. If container startup time is known from previous runs,
+	 * container is checked rarely until it is expected to be ready (each delay is a half of the remaining time) and
+	 * densely around the expected time. If container is not ready long after expected time, regular interval is used.
+	 *
+	 * @param expectedMs expected time to readiness or {@code -1} if unknown
+	 * @param elapsedMs  time passed since container is registered
+	 * @param regularMs  regular check interval
+	 */
+	static long pollDelay(long expectedMs, long elapsedMs, long regularMs) {
+		if (expectedMs <= 0)
+			return regularMs;
+		long remaining = expectedMs - elapsedMs;
+		if (remaining > DENSE_WINDOW_MS)
+			return Math.min(remaining / 2, MAX_SPARSE_INTERVAL_MS);
+		return elapsedMs < 2 * expectedMs
+			? DENSE_INTERVAL_MS
+			: regularMs;
+	}
+
+	/**
+	 * Updates states of all pending containers using events if possible. All the containers which states couldn't be
+	 * resolved using events are inspected using single {@code docker inspect} call.
+	 */
+	private void updateStates(Collection<PendingContainer> pending) throws IOException, InterruptedException {
+		List<PendingContainer> toInspect = new ArrayList<>();
+		long now = currentTimeMillis();
+		for (PendingContainer c : pending) {
+			ContainerEventTracker events = c.events;
+			CompletableFuture<Integer> exited = events == null
+				? null
+				: events.exited(c.id);
+			// Container not tracked by events is polled
+			if (exited != null && exited.isCompletedExceptionally())
+				events = null;
+			if (events != null && events.isActive()) {
+				if (exited.isDone()) {
+					c.ready.completeExceptionally(new IllegalStateException("Container " + c.id + " failed to start. " +
+						"Exit code: " + exited.join()));
+					continue;
+				}
+				c.running |= events.started(c.id).isDone();
+				CompletableFuture<Boolean> healthy = events.healthy(c.id);
+				if (c.definition.isWaitForHealthy() && healthy.isDone()) {
+					if (!healthy.join()) {
+						c.ready.completeExceptionally(new IllegalStateException("Container " + c.id + " is unhealthy"));
+						continue;
+					}
+					c.healthy = true;
+				}
+			}
+
+			// Event could be missed for some reason, so polling is used if it doesn't arrive in time
+			boolean eventsActive = events != null && events.isActive();
+			boolean stateRequired = !eventsActive || (!c.running && now - c.registeredAt > EVENT_TIMEOUT_MS);
+			boolean pidRequired = c.running && !c.pidResolved && shouldWaitForOpenPorts(c.definition);
+			boolean hostPortsRequired = c.running && c.hostPorts == null && shouldWaitForOpenPorts(c.definition) &&
+				c.definition.getPortsCheck() == HOST_CONNECT;
+			boolean healthRequired = c.running && c.definition.isWaitForHealthy() && !c.healthy &&
+				now - c.healthInspectedAt >= HEALTH_POLL_INTERVAL_MS;
+			if (stateRequired || pidRequired || hostPortsRequired || healthRequired) {
+				toInspect.add(c);
+			}
+		}
+		if (toInspect.isEmpty())
+			return;
+
+		String[] ids = toInspect.stream().map(c -> c.id).toArray(String[]::new);
+		JsonNode root;
+		try {
+			root = InspectExtractor.STATE.extract(transport.inspect(ids));
+		} catch (IOException e) {
+			if (toInspect.size() == 1) {
+				toInspect.get(0).ready.completeExceptionally(e);
+				return;
+			}
+			// One of the containers could be already removed. Inspecting one by one to find out which one
+			for (PendingContainer c : toInspect)
+				updateStates(Collections.singletonList(c));
+			return;
+		}
+
+		Map<String, PendingContainer> byId = new HashMap<>();
+		for (PendingContainer c : toInspect)
+			byId.put(c.id, c);
+		for (JsonNode container : root) {
+			PendingContainer c = byId.get(container.path("Id").asText());
+			if (c != null)
+				updateState(c, container);
+		}
+	}
+
+	private static void updateState(PendingContainer c, JsonNode container) {
+		String state = container.at("/State/Status").asText();
+		if ("running".equalsIgnoreCase(state)) {
+			c.running = true;
+			if (!c.pidResolved) {
+				c.pidResolved = true;
+				c.procDirectory = hostProcDirectory(c.id, container.at("/State/Pid").asInt());
+			}
+			Map<Integer, Integer> hostPorts = Docker.publishedPorts(container);
+			boolean allPublished = c.definition.getPublishedPorts().keySet().stream()
+				.allMatch(p -> hostPorts.getOrDefault(p, 0) > 0);
+			if (allPublished)
+				c.hostPorts = hostPorts;
+			if (c.definition.isWaitForHealthy() && !c.healthy)
+				updateHealth(c, container.at("/State/Health"));
+		} else if ("created".equalsIgnoreCase(state) && !c.running) {
+			// container may start not immediately. let's wait some time
+		} else {
+			c.ready.completeExceptionally(new IllegalStateException("Unable to start container " + c.id +
+				" current state is " + state));
+		}
+	}
+
+	/**
+	 * @param health {@code State.Health} object of {@code docker inspect} output
+	 */
+	private static void updateHealth(PendingContainer c, JsonNode health) {
+		c.healthInspectedAt = currentTimeMillis();
+		String status = health.path("Status").asText();
+		if (status.isEmpty() || "none".equals(status)) {
+			c.ready.completeExceptionally(new IllegalStateException("Container " + c.id + " has no healthcheck. " +
+				"Define HEALTHCHECK in the image or use --health-cmd option"));
+		} else if ("healthy".equals(status)) {
+			c.healthy = true;
+		} else if ("unhealthy".equals(status)) {
+			JsonNode checks = health.path("Log");
+			String output = checks.size() > 0
+				? checks.get(checks.size() - 1).path("Output").asText().trim()
+				: "";
+			c.ready.completeExceptionally(new IllegalStateException("Container " + c.id + " is unhealthy. " +
+				"Last check output: " + output));
+		}
+	}
+
+	/**
+	 * Checks if all the published ports are open in a container.
+	 * <p>
+	 * Only TCP ports are monitored at the moment using /proc/self/net/tcp. If container process is visible from the
+	 * host, network tables are read directly from {@code /proc/<pid>/net} at the host. Otherwise {@code docker exec} is
+	 * used.
+	 */
+	private boolean arePortsOpen(PendingContainer c) throws IOException, InterruptedException {
+		if (c.definition.getPortsCheck() == HOST_CONNECT) {
+			long reachable = c.probes.stream().filter(ConnectProbe::isReachable).count();
+			c.status = reachable + " of " + c.expectedPorts.cardinality() + " published ports are reachable from the host";
+			return !c.probes.isEmpty() && reachable == c.probes.size();
+		}
+		BitSet openPorts = c.openPorts;
+		openPorts.clear();
+		for (String file : c.tcpFiles) {
+			if (c.procDirectory != null && !readHostTcpTable(c.parser, c.procDirectory, file, openPorts)) {
+				log.debug("Unable to read {} of container {} at the host. Falling back to docker exec", file, c.id);
+				c.procDirectory = null;
+			}
+			if (c.procDirectory == null) {
+				String table = transport.exec(c.id, "sh", "-c", "[ ! -f " + file + " ] || cat " + file);
+				byte[] bytes = table.getBytes(US_ASCII);
+				ProcNetTcpParser.parse(bytes, 0, bytes.length, openPorts);
+			}
+		}
+		openPorts.and(c.expectedPorts);
+		c.status = "listening ports " + openPorts + " of expected " + c.expectedPorts;
+		return openPorts.equals(c.expectedPorts);
+	}
+
+	/**
+	 * Creates connect probes for all the published ports of a container. Probes are driven by the monitor loop.
+	 */
+	private void startProbes(PendingContainer c) {
+		for (Integer containerPort : c.definition.getPublishedPorts().keySet()) {
+			InetSocketAddress address = new InetSocketAddress(portsHost, c.hostPorts.get(containerPort));
+			c.probes.add(new ConnectProbe(address, c.definition.getProbeBackoff()));
+		}
+	}
+
+	static boolean shouldWaitForOpenPorts(ContainerDefinition definition) {
+		return !definition.getPublishedPorts().isEmpty() && definition.isWaitForAllExposedPortsToBeOpen();
+	}
+
+	/**
+	 * Resolves {@code /proc/<pid>} directory of container main process at the host.
+	 *
+	 * @return directory or {@code null} if container process is not visible from the host (eg. daemon is running in a
+	 * VM) or not accessible
+	 */
+	static Path hostProcDirectory(String cid, int pid) {
+		if (pid <= 0)
+			return null;
+		Path directory = Paths.get("/proc", String.valueOf(pid));
+		try {
+			// Pid could belong to unrelated process if daemon is running in a different pid namespace
+			String cgroup = new String(readAllBytes(directory.resolve("cgroup")), UTF_8);
+			return cgroup.contains(cid)
+				? directory
+				: null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param procDirectory {@code /proc/<pid>} directory of container process
+	 * @param file          path inside the container (eg. {@code /proc/self/net/tcp})
+	 * @param listenPorts   set where listening ports will be added
+	 * @return {@code false} if file could not be read from the host
+	 */
+	static boolean readHostTcpTable(ProcNetTcpParser parser, Path procDirectory, String file, BitSet listenPorts) {
+		String self = "/proc/self/";
+		if (!file.startsWith(self))
+			return false;
+		try {
+			parser.read(procDirectory.resolve(file.substring(self.length())), listenPorts);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stops monitoring thread without waiting for it. All pending containers are completed exceptionally. Monitor could
+	 * be reused right away, new thread (with its own registrations) is started on demand.
+	 *
+	 * @return future completed when the thread is stopped
+	 */
+	CompletableFuture<Void> closeAsync() {
+		Generation g;
+		synchronized (lock) {
+			g = generation;
+			generation = null;
+		}
+		if (g == null)
+			return CompletableFuture.completedFuture(null);
+		g.thread.interrupt();
+		return g.terminated;
+	}
+
+	/**
+	 * Stops monitoring thread and waits for it to terminate
+	 *
+	 * @see #closeAsync()
+	 */
+	@Override
+	public void close() {
+		try {
+			closeAsync().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Monitor thread along with registrations and wakeups addressed to it
+	 */
+	private static final class Generation {
+
+		final Queue<PendingContainer> registrations = new ConcurrentLinkedQueue<>();
+		final Set<String> woken = ConcurrentHashMap.newKeySet();
+		final CompletableFuture<Void> terminated = new CompletableFuture<>();
+		volatile Selector selector;
+		Thread thread;
+
+		void wakeUp(String cid) {
+			woken.add(cid);
+			Selector s = selector;
+			if (s != null)
+				s.wakeup();
+		}
+
+		Set<String> drainWoken() {
+			if (woken.isEmpty())
+				return Collections.emptySet();
+			Set<String> result = new HashSet<>();
+			for (Iterator<String> it = woken.iterator(); it.hasNext(); ) {
+				result.add(it.next());
+				it.remove();
+			}
+			return result;
+		}
+	}
+
+	private static final class PendingContainer {
+
+		final String id;
+		final ContainerDefinition definition;
+		final List<String> tcpFiles;
+		final ContainerEventTracker events;
+		final long expectedReadyMs;
+		final CompletableFuture<Void> ready = new CompletableFuture<>();
+		final long registeredAt = currentTimeMillis();
+		final ProcNetTcpParser parser = new ProcNetTcpParser();
+		final BitSet expectedPorts = new BitSet();
+		final BitSet openPorts = new BitSet();
+		boolean running;
+		boolean pidResolved;
+		boolean reported;
+		boolean healthy;
+		long healthInspectedAt;
+		volatile String status = "container is not running yet";
+		Path procDirectory;
+		Map<Integer, Integer> hostPorts;
+		final List<ConnectProbe> probes = new ArrayList<>();
+
+		long nextCheckAt;
+
+		PendingContainer(String id, ContainerDefinition definition, List<String> tcpFiles, ContainerEventTracker events,
+		                 long expectedReadyMs) {
+			this.id = requireNonNull(id);
+			this.definition = requireNonNull(definition);
+			this.tcpFiles = requireNonNull(tcpFiles);
+			this.events = events;
+			this.expectedReadyMs = expectedReadyMs;
+			definition.getPublishedPorts().keySet().forEach(expectedPorts::set);
+		}
+
+		/**
+		 * @return {@code true} once, when container is not ready for suspiciously long time: {@link #REPORT_AFTER_MS}
+		 * or twice as long as expected
+		 */
+		boolean shouldReport(long now) {
+			if (reported || now - registeredAt <= Math.max(REPORT_AFTER_MS, 2 * expectedReadyMs))
+				return false;
+			reported = true;
+			return true;
+		}
+
+		void closeProbes() {
+			probes.forEach(ConnectProbe::close);
+			probes.clear();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.ConcurrentHashMap.newKeySet;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Keeps track of containers reused between test runs (see {@link ContainerDefinition#setReusable(boolean)}).
+ * <p>
+ * Reusable container is marked with a label holding a fingerprint of its definition. Next test run having the same
+ * definition adopts running container with matching fingerprint instead of starting a new one.
+ * <p>
+ * Time of the last use of each fingerprint is stored as a modification time of a file in a state directory, so it is
+ * shared between JVMs. Reusable containers (running or stopped) which are not used for {@code docker.reuse.ttl} minutes
+ * (60 by default) are removed when reusable containers are requested, at most once in {@link #REAP_INTERVAL_MS}.
+ */
+final class ReusableContainers {
+
+	static final String FINGERPRINT_LABEL = "docker.reuse.fingerprint";
+	static final String TTL_PROPERTY = "docker.reuse.ttl";
+	static final long REAP_INTERVAL_MS = 60_000;
+
+	private static final Logger log = getLogger(ReusableContainers.class);
+	private static final InspectExtractor LABELS = new InspectExtractor("Id", "Config/Labels");
+
+	private final DockerTransport transport;
+	private final Path stateDirectory;
+	private final long ttlMs;
+	private final Set<String> used = newKeySet();
+	private final AtomicLong reapedAt = new AtomicLong();
+
+	ReusableContainers(DockerTransport transport) {
+		this(transport, Paths.get(System.getProperty("java.io.tmpdir"), "docker-testng-reuse"),
+			MINUTES.toMillis(Long.getLong(TTL_PROPERTY, 60)));
+	}
+
+	ReusableContainers(DockerTransport transport, Path stateDirectory, long ttlMs) {
+		this.transport = requireNonNull(transport);
+		this.stateDirectory = requireNonNull(stateDirectory);
+		this.ttlMs = ttlMs;
+	}
+
+	/**
+	 * Computes stable hash of all the definition properties affecting container runtime. Readiness settings as well as
+	 * container removal policy are not taken into account.
+	 *
+	 * @param definition container definition
+	 * @param imageId    content digest of a container image or {@code null} if image is not available locally. In the
+	 *                   latter case image name is used instead.
+	 * @return hex-encoded SHA-256 fingerprint
+	 */
+	static String fingerprint(ContainerDefinition definition, String imageId) {
+		StringBuilder canonical = new StringBuilder();
+		append(canonical, "image", imageId == null ? definition.getImage() : imageId);
+		append(canonical, "command", definition.getCommand());
+		append(canonical, "env", new TreeMap<>(definition.getEnvironment()));
+		append(canonical, "ports", new TreeMap<>(definition.getPublishedPorts()));
+		for (VolumeDef volume : definition.getVolumes()) {
+			String location = volume.getLocation() == null ? "" : volume.getLocation().getAbsolutePath();
+			append(canonical, "volume", volume.getMountPoint() + ":" + location);
+		}
+		append(canonical, "options", definition.getCustomOptions());
+		append(canonical, "workdir", definition.getWorkingDirectory());
+		append(canonical, "network", definition.getNetwork());
+		append(canonical, "alias", definition.getNetworkAlias());
+		if (definition.getHealthCheckIntervalMs() > 0)
+			append(canonical, "health-interval", definition.getHealthCheckIntervalMs());
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.toString().getBytes(UTF_8));
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest)
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void append(StringBuilder canonical, String name, Object value) {
+		canonical.append(name).append('=').append(value == null ? "" : value).append('\0');
+	}
+
+	/**
+	 * Looks for a running container with a given fingerprint. Expired containers are reaped before the lookup, so
+	 * containers expired during a long test run are removed as well.
+	 *
+	 * @return id of a running container or {@code null} if there is no such container
+	 */
+	String adopt(String fingerprint) throws IOException, InterruptedException {
+		long now = System.currentTimeMillis();
+		long previous = reapedAt.get();
+		if (now - previous >= Math.min(ttlMs, REAP_INTERVAL_MS) && reapedAt.compareAndSet(previous, now))
+			reapExpired();
+		List<String> ids = transport.findContainers(FINGERPRINT_LABEL + "=" + fingerprint);
+		markUsed(fingerprint);
+		return ids.isEmpty()
+			? null
+			: ids.get(0);
+	}
+
+	/**
+	 * Updates the time of the last use of a fingerprint
+	 */
+	void markUsed(String fingerprint) {
+		used.add(fingerprint);
+		try {
+			Files.createDirectories(stateDirectory);
+			Path file = stateDirectory.resolve(fingerprint);
+			if (!Files.exists(file))
+				Files.createFile(file);
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			throw new UncheckedIOException("Unable to update reusable container state in: " + stateDirectory, e);
+		}
+	}
+
+	/**
+	 * Updates the time of the last use of all the fingerprints used in this session, so the idle period is counted from
+	 * the end of a test run.
+	 */
+	void release() {
+		for (String fingerprint : used)
+			markUsed(fingerprint);
+		used.clear();
+	}
+
+	/**
+	 * Removes reusable containers (including stopped ones) which were not used for longer than TTL
+	 */
+	void reapExpired() throws IOException, InterruptedException {
+		List<String> ids = transport.findContainers(FINGERPRINT_LABEL, true);
+		if (ids.isEmpty())
+			return;
+		long now = System.currentTimeMillis();
+		List<String> expired = new ArrayList<>();
+		for (JsonNode container : LABELS.extract(transport.inspect(ids.toArray(new String[0])))) {
+			String fingerprint = container.at("/Config/Labels").path(FINGERPRINT_LABEL).asText();
+			if (!used.contains(fingerprint) && now - lastUsed(fingerprint) > ttlMs) {
+				expired.add(container.path("Id").asText());
+				Files.deleteIfExists(stateDirectory.resolve(fingerprint));
+			}
+		}
+		if (!expired.isEmpty()) {
+			log.info("Removing {} reusable containers idle for more than {}ms", expired.size(), ttlMs);
+			transport.removeContainers(expired);
+		}
+	}
+
+	private long lastUsed(String fingerprint) throws IOException {
+		Path file = stateDirectory.resolve(fingerprint);
+		return Files.exists(file)
+			? Files.getLastModifiedTime(file).toMillis()
+			: 0;
+	}
+}
@@ -0,0 +1,263 @@
+package me.bazhenov.docker;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Runs container starts with bounded concurrency.
+ * <p>
+ * Pending starts are prioritized by the expected duration of the critical path they are on (duration of a start itself
+ * plus the longest chain of starts waiting for it), so the slowest containers are started first and do not end up
+ * being the tail of the startup. Expected duration of a start is the moving average of previous starts of the same image
+ * in this scheduler, or the duration from the startup history of previous runs. Starts of images never seen before are
+ * considered the slowest.
+ * <p>
+ * Scheduler doesn't own any threads. Start procedures are asynchronous, start slot is occupied until the future returned
+ * by a procedure is completed (or the procedure releases the slot earlier), and the next pending start is issued by the
+ * thread freeing the slot.
+ */
+final class StartScheduler implements Closeable {
+
+	static final String CONCURRENCY_PROPERTY = "docker.start.concurrency";
+
+	private final int concurrency;
+	private final ToLongFunction<String> history;
+	private final PriorityQueue<PendingStart<?>> pending = new PriorityQueue<>();
+	private final Map<String, Long> durations = new ConcurrentHashMap<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final LongAdder totalQueueWaitMs = new LongAdder();
+	private final LongAccumulator maxQueueWaitMs = new LongAccumulator(Math::max, 0);
+	private int active;
+	private int completed;
+	private boolean closed;
+
+	/**
+	 * @param concurrency maximum number of containers being started simultaneously
+	 */
+	StartScheduler(int concurrency) {
+		this(concurrency, image -> -1);
+	}
+
+	/**
+	 * @param concurrency maximum number of containers being started simultaneously
+	 * @param history     expected start duration of images from previous runs ({@code -1} if unknown)
+	 */
+	StartScheduler(int concurrency, ToLongFunction<String> history) {
+		if (concurrency <= 0)
+			throw new IllegalArgumentException("Concurrency should be positive: " + concurrency);
+		this.concurrency = concurrency;
+		this.history = requireNonNull(history);
+	}
+
+	/**
+	 * @param image image of a container being started, used to estimate start duration
+	 * @param start asynchronous start procedure
+	 * @return future completed when start procedure is finished
+	 */
+	<T> CompletableFuture<T> submit(String image, Supplier<? extends CompletionStage<T>> start) {
+		return submit(image, 0, start);
+	}
+
+	/**
+	 * @param image        image of a container being started, used to estimate start duration
+	 * @param downstreamMs expected duration of the longest chain of starts waiting for this one
+	 * @param start        asynchronous start procedure
+	 * @return future completed when start procedure is finished
+	 */
+	<T> CompletableFuture<T> submit(String image, long downstreamMs, Supplier<? extends CompletionStage<T>> start) {
+		return submit(image, downstreamMs, releaseSlot -> start.get());
+	}
+
+	/**
+	 * Submits a start procedure which could free its start slot before it is finished (eg. when the rest of the start
+	 * doesn't load the daemon). Duration of the start is measured until the procedure is finished anyway.
+	 *
+	 * @param image        image of a container being started, used to estimate start duration
+	 * @param downstreamMs expected duration of the longest chain of starts waiting for this one
+	 * @param start        asynchronous start procedure accepting an action freeing the slot
+	 * @return future completed when start procedure is finished
+	 */
+	<T> CompletableFuture<T> submit(String image, long downstreamMs,
+	                                Function<Runnable, ? extends CompletionStage<T>> start) {
+		PendingStart<T> task = new PendingStart<>(image, saturatedAdd(getExpectedDuration(image), downstreamMs), start);
+		synchronized (this) {
+			if (closed) {
+				task.result.completeExceptionally(new RejectedExecutionException("Scheduler is closed"));
+				return task.result;
+			}
+			pending.add(task);
+		}
+		task.result.whenComplete((value, e) -> {
+			if (task.result.isCancelled())
+				task.cancel();
+		});
+		dispatch();
+		return task.result;
+	}
+
+	/**
+	 * Issues pending starts while there are free start slots
+	 */
+	private void dispatch() {
+		List<PendingStart<?>> issued = new ArrayList<>();
+		synchronized (this) {
+			while (active < concurrency && !pending.isEmpty()) {
+				issued.add(pending.poll());
+				active++;
+			}
+		}
+		issued.forEach(PendingStart::run);
+	}
+
+	/**
+	 * @return expected duration of a container start in ms or {@link Long#MAX_VALUE} if image was never started
+	 */
+	long getExpectedDuration(String image) {
+		Long duration = durations.get(image);
+		if (duration != null)
+			return duration;
+		long previous = history.applyAsLong(image);
+		return previous >= 0
+			? previous
+			: Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return sum of non-negative durations, {@link Long#MAX_VALUE} if any of them is unknown
+	 */
+	static long saturatedAdd(long a, long b) {
+		return a > Long.MAX_VALUE - b
+			? Long.MAX_VALUE
+			: a + b;
+	}
+
+	private void recordDuration(String image, long durationMs) {
+		durations.merge(image, durationMs, (previous, current) -> (previous + current) / 2);
+	}
+
+	synchronized StartStatistics getStatistics() {
+		return new StartStatistics(active, pending.size(), completed, totalQueueWaitMs.sum(), maxQueueWaitMs.get());
+	}
+
+	private static <T> CompletionStage<T> failedStage(Throwable e) {
+		CompletableFuture<T> failed = new CompletableFuture<>();
+		failed.completeExceptionally(e);
+		return failed;
+	}
+
+	@Override
+	public void close() {
+		List<PendingStart<?>> cancelled;
+		synchronized (this) {
+			closed = true;
+			cancelled = new ArrayList<>(pending);
+			pending.clear();
+		}
+		for (PendingStart<?> task : cancelled)
+			task.result.cancel(false);
+	}
+
+	private final class PendingStart<T> implements Comparable<PendingStart<?>> {
+
+		final String image;
+		final Function<Runnable, ? extends CompletionStage<T>> start;
+		private final AtomicBoolean slotReleased = new AtomicBoolean();
+		final CompletableFuture<T> result = new CompletableFuture<>();
+		final long priority;
+		final long order = sequence.incrementAndGet();
+		final long submittedAt = currentTimeMillis();
+		CompletionStage<T> stage;
+
+		PendingStart(String image, long priority, Function<Runnable, ? extends CompletionStage<T>> start) {
+			this.image = requireNonNull(image);
+			this.priority = priority;
+			this.start = requireNonNull(start);
+		}
+
+		void run() {
+			long startedAt = currentTimeMillis();
+			long wait = startedAt - submittedAt;
+			totalQueueWaitMs.add(wait);
+			maxQueueWaitMs.accumulate(wait);
+			CompletionStage<T> issued;
+			try {
+				issued = result.isDone()
+					? failedStage(new CancellationException())
+					: start.apply(this::releaseSlot);
+			} catch (Throwable e) {
+				issued = failedStage(e);
+			}
+			synchronized (this) {
+				stage = issued;
+			}
+			if (result.isCancelled())
+				cancel();
+			issued.whenComplete((value, error) -> {
+				if (error == null)
+					recordDuration(image, currentTimeMillis() - startedAt);
+				// Statistics are updated before completion, so callers see consistent state
+				synchronized (StartScheduler.this) {
+					completed++;
+				}
+				releaseSlot();
+				if (error == null)
+					result.complete(value);
+				else
+					result.completeExceptionally(error);
+			});
+		}
+
+		/**
+		 * Frees the start slot (only once) and issues the next pending start
+		 */
+		void releaseSlot() {
+			if (!slotReleased.compareAndSet(false, true))
+				return;
+			synchronized (StartScheduler.this) {
+				active--;
+			}
+			dispatch();
+		}
+
+		/**
+		 * Removes pending start from the queue or cancels the start procedure if it is already issued
+		 */
+		void cancel() {
+			synchronized (StartScheduler.this) {
+				pending.remove(this);
+			}
+			CompletionStage<T> issued;
+			synchronized (this) {
+				issued = stage;
+			}
+			if (issued != null)
+				issued.toCompletableFuture().cancel(true);
+		}
+
+		@Override
+		public int compareTo(PendingStart<?> o) {
+			int byPriority = Long.compare(o.priority, priority);
+			return byPriority != 0
+				? byPriority
+				: Long.compare(order, o.order);
+		}
+	}
+}
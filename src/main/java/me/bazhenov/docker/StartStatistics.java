@@ -0,0 +1,71 @@
+package me.bazhenov.docker;
+
+/**
+ * Snapshot of container start scheduler state.
+ *
+ * @see DockerTestNgListener#getStartStatistics(org.testng.ISuite)
+ */
+@SuppressWarnings("WeakerAccess")
+public final class StartStatistics {
+
+	private final int activeStarts;
+	private final int queuedStarts;
+	private final int completedStarts;
+	private final long totalQueueWaitMs;
+	private final long maxQueueWaitMs;
+
+	StartStatistics(int activeStarts, int queuedStarts, int completedStarts, long totalQueueWaitMs,
+	                long maxQueueWaitMs) {
+		this.activeStarts = activeStarts;
+		this.queuedStarts = queuedStarts;
+		this.completedStarts = completedStarts;
+		this.totalQueueWaitMs = totalQueueWaitMs;
+		this.maxQueueWaitMs = maxQueueWaitMs;
+	}
+
+	/**
+	 * @return number of containers being started at the moment
+	 */
+	public int getActiveStarts() {
+		return activeStarts;
+	}
+
+	/**
+	 * @return number of containers waiting for a free start slot
+	 */
+	public int getQueuedStarts() {
+		return queuedStarts;
+	}
+
+	/**
+	 * @return number of finished (successfully or not) starts
+	 */
+	public int getCompletedStarts() {
+		return completedStarts;
+	}
+
+	/**
+	 * @return total time containers spent waiting for a free start slot
+	 */
+	public long getTotalQueueWaitMs() {
+		return totalQueueWaitMs;
+	}
+
+	/**
+	 * @return maximum time single container spent waiting for a free start slot
+	 */
+	public long getMaxQueueWaitMs() {
+		return maxQueueWaitMs;
+	}
+
+	@Override
+	public String toString() {
+		return "StartStatistics{" +
+			"active=" + activeStarts +
+			", queued=" + queuedStarts +
+			", completed=" + completedStarts +
+			", totalQueueWait=" + totalQueueWaitMs + "ms" +
+			", maxQueueWait=" + maxQueueWaitMs + "ms" +
+			'}';
+	}
+}
@@ -0,0 +1,145 @@
+package me.bazhenov.docker;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Objects.requireNonNull;
+import static org.slf4j.LoggerFactory.getLogger;
+
+/**
+ * Durations of container startup phases by image, persisted between test runs.
+ * <p>
+ * History is used to poll containers densely only around the time they are expected to be ready, and to start the
+ * slowest containers first. Durations are moving averages, so history adapts when an image changes. History is stored
+ * in a properties file ({@code docker.history.file} system property, {@code docker-testng-startup-history.properties}
+ * in temporary directory by default). File is merged with the durations recorded by concurrent runs when saved.
+ */
+final class StartupHistory {
+
+	static final String FILE_PROPERTY = "docker.history.file";
+
+	private static final Logger log = getLogger(StartupHistory.class);
+
+	/**
+	 * Startup phase of a container
+	 */
+	enum Phase {
+
+		/**
+		 * {@code docker run} is executed
+		 */
+		RUN,
+
+		/**
+		 * container is started, but not ready yet
+		 */
+		READY
+	}
+
+	private final Path file;
+	private final Map<String, Long> durations = new ConcurrentHashMap<>();
+	private final Map<String, Long> recorded = new ConcurrentHashMap<>();
+
+	StartupHistory(Path file) {
+		this.file = requireNonNull(file);
+		durations.putAll(load(file));
+	}
+
+	static StartupHistory createDefault() {
+		String location = System.getProperty(FILE_PROPERTY);
+		return new StartupHistory(location == null
+			? Paths.get(System.getProperty("java.io.tmpdir"), "docker-testng-startup-history.properties")
+			: Paths.get(location));
+	}
+
+	/**
+	 * @return expected duration of a phase in ms or {@code -1} if image was never started
+	 */
+	long getExpected(String image, Phase phase) {
+		return durations.getOrDefault(key(image, phase), -1L);
+	}
+
+	/**
+	 * @return expected duration of all the phases in ms or {@code -1} if image was never started
+	 */
+	long getExpectedTotal(String image) {
+		long total = -1;
+		for (Phase phase : Phase.values()) {
+			long duration = getExpected(image, phase);
+			if (duration >= 0)
+				total = Math.max(total, 0) + duration;
+		}
+		return total;
+	}
+
+	void record(String image, Phase phase, long durationMs) {
+		String key = key(image, phase);
+		long average = durations.merge(key, durationMs, (previous, current) -> (previous + current) / 2);
+		recorded.put(key, average);
+	}
+
+	/**
+	 * Writes durations recorded by this instance to the history file
+	 */
+	synchronized void save() {
+		if (recorded.isEmpty())
+			return;
+		try {
+			Path directory = file.toAbsolutePath().getParent();
+			Files.createDirectories(directory);
+			Properties properties = new Properties();
+			load(file).forEach((key, value) -> properties.setProperty(key, Long.toString(value)));
+			recorded.forEach((key, value) -> properties.setProperty(key, Long.toString(value)));
+
+			Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+			try (OutputStream out = Files.newOutputStream(temporary)) {
+				properties.store(out, "Container startup phase durations (ms)");
+			}
+			try {
+				Files.move(temporary, file, ATOMIC_MOVE, REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, file, REPLACE_EXISTING);
+			}
+			recorded.clear();
+		} catch (IOException e) {
+			log.debug("Unable to save startup history to {}", file, e);
+		}
+	}
+
+	private static Map<String, Long> load(Path file) {
+		Map<String, Long> result = new ConcurrentHashMap<>();
+		if (!Files.isRegularFile(file))
+			return result;
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		} catch (IOException | IllegalArgumentException e) {
+			log.debug("Unable to read startup history from {}", file, e);
+			return result;
+		}
+		for (String key : properties.stringPropertyNames()) {
+			try {
+				result.put(key, Long.parseLong(properties.getProperty(key).trim()));
+			} catch (NumberFormatException e) {
+				log.debug("Invalid startup history entry {}", key);
+			}
+		}
+		return result;
+	}
+
+	private static String key(String image, Phase phase) {
+		return image + "@" + phase.name().toLowerCase();
+	}
+}
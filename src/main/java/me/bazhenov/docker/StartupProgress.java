@@ -0,0 +1,96 @@
+package me.bazhenov.docker;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Progress of a single container start: phases passed so far and readiness checks in flight. Used to describe a start
+ * which takes too long.
+ */
+final class StartupProgress {
+
+	enum Phase {
+		IMAGE, RUN, READINESS, HTTP
+	}
+
+	private final ContainerDefinition definition;
+	private final long startedAt = currentTimeMillis();
+	private final Map<Phase, Long> phases = new EnumMap<>(Phase.class);
+	private final List<HttpProbe> probes = new CopyOnWriteArrayList<>();
+	private volatile String containerId;
+	private volatile LogMatcher logMatcher;
+
+	StartupProgress(ContainerDefinition definition) {
+		this.definition = requireNonNull(definition);
+	}
+
+	ContainerDefinition getDefinition() {
+		return definition;
+	}
+
+	long getElapsedMs() {
+		return currentTimeMillis() - startedAt;
+	}
+
+	synchronized void enter(Phase phase) {
+		phases.put(phase, currentTimeMillis());
+	}
+
+	String getContainerId() {
+		return containerId;
+	}
+
+	void setContainerId(String containerId) {
+		this.containerId = containerId;
+	}
+
+	void setLogMatcher(LogMatcher logMatcher) {
+		this.logMatcher = logMatcher;
+	}
+
+	void addProbe(HttpProbe probe) {
+		probes.add(probe);
+	}
+
+	/**
+	 * @return time spent in each phase, eg. {@code image 12ms, run 340ms, readiness 29648ms (in progress)}
+	 */
+	synchronized String describePhases() {
+		if (phases.isEmpty())
+			return "not started";
+		List<String> result = new ArrayList<>();
+		Phase previous = null;
+		for (Map.Entry<Phase, Long> phase : phases.entrySet()) {
+			if (previous != null)
+				result.add(describe(previous, phase.getValue() - phases.get(previous), false));
+			previous = phase.getKey();
+		}
+		result.add(describe(previous, currentTimeMillis() - phases.get(previous), true));
+		return String.join(", ", result);
+	}
+
+	private static String describe(Phase phase, long durationMs, boolean current) {
+		return phase.name().toLowerCase() + " " + durationMs + "ms" + (current ? " (in progress)" : "");
+	}
+
+	/**
+	 * @return readiness checks not passed yet: log patterns not matched and last failures of HTTP probes
+	 */
+	String describePendingChecks() {
+		List<String> result = new ArrayList<>();
+		LogMatcher matcher = logMatcher;
+		if (matcher != null && !matcher.getMatched().isDone())
+			result.add("log lines " + matcher.describeUnsatisfied());
+		for (HttpProbe probe : probes) {
+			if (!probe.isDone())
+				result.add(probe.getUrl() + " (" + probe.getLastFailure() + ")");
+		}
+		return String.join(", ", result);
+	}
+}
@@ -0,0 +1,555 @@
+package me.bazhenov.docker;
+
+import org.slf4j.Logger;
+import org.testng.ISuite;
+import org.testng.ITestNGMethod;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static java.lang.System.currentTimeMillis;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.newSetFromMap;
+import static java.util.Collections.singleton;
+import static java.util.Objects.requireNonNull;
+import static org.slf4j.LoggerFactory.getLogger;
+import static org.testng.util.Strings.isNullOrEmpty;
+
+/**
+ * Suite-wide registry of containers.
+ * <p>
+ * Namespaces created from the same class are shared by all the {@code <test>} contexts of a suite. Each namespace is
+ * started once and reference counted: number of references is the number of contexts which are going to use it. When
+ * the last context using a namespace is finished, containers of the namespace are removed.
+ * <p>
+ * When deduplication is enabled (using {@code docker.dedup} system property or suite parameter) structurally identical
+ * definitions (see {@link ContainerDefinition#equals(Object)}) of different namespaces are started as a single container
+ * shared by all those namespaces. Otherwise each namespace has its own containers.
+ * <p>
+ * Total time test contexts could wait for containers is limited by {@code docker.startup.budget} system property or
+ * suite parameter (in milliseconds). When the budget is exhausted, startup fails with a description of the containers
+ * not ready yet.
+ * <p>
+ * Registry is stored as a suite attribute, so it is shared by all listener instances.
+ */
+class SuiteContainers implements Closeable {
+
+	private static final Logger log = getLogger(SuiteContainers.class);
+	private static final String ATTRIBUTE = SuiteContainers.class.getName();
+	static final String DEDUP_PROPERTY = "docker.dedup";
+	static final String STARTUP_BUDGET_PROPERTY = "docker.startup.budget";
+
+	private final Docker docker;
+	private final DockerAnnotationsInspector inspector = new DockerAnnotationsInspector();
+	private final Map<String, Set<ContainerNamespace>> planned = new HashMap<>();
+	private final Map<String, Set<ContainerNamespace>> acquired = new HashMap<>();
+	private final Map<ContainerNamespace, Usage> usages = new IdentityHashMap<>();
+	private final Map<ContainerDefinition, Instance> instances;
+	private final Map<ContainerDefinition, Set<ContainerDefinition>> dependents = new IdentityHashMap<>();
+	private final StartScheduler scheduler;
+	private final long startupBudgetMs;
+	private final AtomicLong startupSpentMs = new AtomicLong();
+	private CompletableFuture<Void> prefetched;
+
+	SuiteContainers(Docker docker, boolean deduplicate, int concurrency) {
+		this(docker, deduplicate, concurrency, 0);
+	}
+
+	/**
+	 * @param startupBudgetMs total time test contexts could wait for containers to be ready, no limit if {@code <= 0}
+	 */
+	SuiteContainers(Docker docker, boolean deduplicate, int concurrency, long startupBudgetMs) {
+		this.docker = requireNonNull(docker);
+		this.startupBudgetMs = startupBudgetMs;
+		this.scheduler = new StartScheduler(concurrency, docker::getExpectedStartupMs);
+		this.instances = deduplicate
+			? new HashMap<>()
+			: new IdentityHashMap<>();
+	}
+
+	/**
+	 * @return registry of a given suite. Registry is created on first access.
+	 */
+	static SuiteContainers forSuite(ISuite suite) {
+		synchronized (suite) {
+			SuiteContainers containers = (SuiteContainers) suite.getAttribute(ATTRIBUTE);
+			if (containers == null) {
+				boolean deduplicate = Boolean.getBoolean(DEDUP_PROPERTY) ||
+					Boolean.parseBoolean(suite.getParameter(DEDUP_PROPERTY));
+				String budget = getParameter(suite, STARTUP_BUDGET_PROPERTY);
+				containers = new SuiteContainers(new Docker(), deduplicate, getConcurrency(suite),
+					isNullOrEmpty(budget) ? 0 : Long.parseLong(budget.trim()));
+				Map<String, Set<Class<?>>> classes = new HashMap<>();
+				for (ITestNGMethod method : suite.getAllMethods()) {
+					classes.computeIfAbsent(method.getXmlTest().getName(), k -> new HashSet<>())
+						.add(method.getRealClass());
+				}
+				classes.forEach(containers::plan);
+				suite.setAttribute(ATTRIBUTE, containers);
+			}
+			return containers;
+		}
+	}
+
+	/**
+	 * @return maximum number of simultaneous container starts configured using {@code docker.start.concurrency} suite
+	 * parameter or system property. Number of available processors (at least 2) is used by default.
+	 */
+	private static int getConcurrency(ISuite suite) {
+		String value = getParameter(suite, StartScheduler.CONCURRENCY_PROPERTY);
+		return isNullOrEmpty(value)
+			? Math.max(2, Runtime.getRuntime().availableProcessors())
+			: Integer.parseInt(value.trim());
+	}
+
+	/**
+	 * @return value of a suite parameter or system property if parameter is not set
+	 */
+	private static String getParameter(ISuite suite, String name) {
+		String value = suite.getParameter(name);
+		return isNullOrEmpty(value)
+			? System.getProperty(name)
+			: value;
+	}
+
+	/**
+	 * Removes registry from a suite and tears down all the containers left. Teardown is done in background, so
+	 * the suite is finished without waiting for containers to be removed
+	 */
+	static void closeForSuite(ISuite suite) {
+		SuiteContainers containers;
+		synchronized (suite) {
+			containers = (SuiteContainers) suite.removeAttribute(ATTRIBUTE);
+		}
+		if (containers != null)
+			logFailure(containers.closeAsync(), "Unable to tear down containers of suite " + suite.getName());
+	}
+
+	/**
+	 * Registers upcoming usage of namespaces of given classes by a test context
+	 */
+	synchronized void plan(String testName, Collection<Class<?>> classes) {
+		Set<ContainerNamespace> namespaces = resolveNamespaces(classes);
+		indexDependents(namespaces);
+		planned.put(testName, namespaces);
+		for (ContainerNamespace namespace : namespaces) {
+			usages.computeIfAbsent(namespace, k -> new Usage()).references++;
+		}
+	}
+
+	/**
+	 * Starts (if not started yet) all the containers needed by given classes and waits for them to be ready.
+	 *
+	 * @see #acquireAsync(String, Collection)
+	 */
+	void acquire(String testName, Collection<Class<?>> classes) throws InterruptedException {
+		try {
+			Docker.await(acquireAsync(testName, classes));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.debug("Containers of {} are ready. {}", testName, scheduler.getStatistics());
+	}
+
+	/**
+	 * Starts (if not started yet) all the containers needed by given classes. Usages which were not planned in advance
+	 * are accounted for as well.
+	 * <p>
+	 * Startup fails fast: as soon as any of the containers fails to start, all the remaining starts of the namespaces
+	 * which are not ready yet are cancelled and containers already started for them are removed.
+	 *
+	 * @return future completed when all the containers are ready and their ports are registered
+	 */
+	synchronized CompletableFuture<Void> acquireAsync(String testName, Collection<Class<?>> classes) {
+		prefetchImages(classes);
+		Set<ContainerNamespace> namespaces = resolveNamespaces(classes);
+		indexDependents(namespaces);
+		Set<ContainerNamespace> expected = planned.remove(testName);
+		Map<ContainerNamespace, CompletableFuture<Void>> starts = new IdentityHashMap<>();
+		for (ContainerNamespace namespace : namespaces) {
+			Usage usage = usages.computeIfAbsent(namespace, k -> new Usage());
+			if (expected == null || !expected.remove(namespace))
+				usage.references++;
+			if (usage.started == null)
+				usage.started = start(namespace);
+			starts.put(namespace, usage.started);
+		}
+		if (expected != null) {
+			// Planned, but not used by a context (eg. all methods are excluded)
+			for (ContainerNamespace namespace : expected)
+				release(namespace);
+		}
+		acquired.computeIfAbsent(testName, k -> newSetFromMap(new IdentityHashMap<>())).addAll(namespaces);
+		CompletableFuture<Void> ready = allOrFirstFailure(starts.values());
+		if (startupBudgetMs > 0 && !ready.isDone())
+			limitStartup(testName, namespaces, ready);
+		// Rollback is issued before the failure is reported to the caller, containers are removed in background
+		return ready.whenComplete((ignored, e) -> {
+			if (e != null)
+				abort(testName, starts, Docker.unwrap(e));
+		});
+	}
+
+	/**
+	 * Fails startup of a test context when the rest of the suite startup budget is exhausted
+	 */
+	private void limitStartup(String testName, Collection<ContainerNamespace> namespaces, CompletableFuture<Void> ready) {
+		long startedAt = currentTimeMillis();
+		long remaining = Math.max(0, startupBudgetMs - startupSpentMs.get());
+		ScheduledFuture<?> deadline = docker.schedule(() -> {
+			if (ready.isDone())
+				return;
+			String message = "Startup budget of " + startupBudgetMs + "ms is exhausted while starting containers of " +
+				testName + ". " + scheduler.getStatistics() + "\n" + describePending(namespaces) + docker.describeStarts();
+			ready.completeExceptionally(new IllegalStateException(message, new TimeoutException()));
+		}, remaining);
+		ready.whenComplete((ignored, e) -> {
+			deadline.cancel(false);
+			startupSpentMs.addAndGet(currentTimeMillis() - startedAt);
+		});
+	}
+
+	/**
+	 * @return state of each container of given namespaces which is not ready yet
+	 */
+	private synchronized String describePending(Collection<ContainerNamespace> namespaces) {
+		StringBuilder result = new StringBuilder();
+		for (ContainerNamespace namespace : namespaces) {
+			for (Map.Entry<String, ContainerDefinition> entry : namespace.getNamedDefinitions().entrySet()) {
+				Instance instance = instances.get(entry.getValue());
+				if (instance == null || instance.ports.isDone())
+					continue;
+				result.append("Container ").append(entry.getKey()).append(" (").append(entry.getValue().getImage())
+					.append(") is ").append(instance.describe()).append('\n');
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return future completed when all the given futures are completed or failed as soon as any of them fails
+	 */
+	static CompletableFuture<Void> allOrFirstFailure(Collection<? extends CompletableFuture<?>> futures) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenRun(() -> result.complete(null));
+		for (CompletableFuture<?> future : futures) {
+			future.whenComplete((ignored, e) -> {
+				if (e != null)
+					result.completeExceptionally(e);
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Rolls back namespaces of a test context which are not ready yet: cancels pending and running starts and removes
+	 * containers already started. Namespaces which are ready are left intact and released as usual.
+	 * <p>
+	 * Only the reference of the given context is dropped. Namespaces planned by other contexts are kept, so they are
+	 * started again when those contexts acquire them.
+	 *
+	 * @param starts starts of the namespaces the context has joined
+	 */
+	private synchronized void abort(String testName, Map<ContainerNamespace, CompletableFuture<Void>> starts,
+	                                Throwable cause) {
+		Set<ContainerNamespace> held = acquired.getOrDefault(testName, emptySet());
+		List<String> containerIds = new ArrayList<>();
+		for (Map.Entry<ContainerNamespace, CompletableFuture<Void>> entry : starts.entrySet()) {
+			ContainerNamespace namespace = entry.getKey();
+			CompletableFuture<Void> start = entry.getValue();
+			Usage usage = usages.get(namespace);
+			if (usage == null || !held.contains(namespace) ||
+				(start.isDone() && !start.isCompletedExceptionally()))
+				continue;
+			held.remove(namespace);
+			if (--usage.references <= 0)
+				usages.remove(namespace);
+			// Start joined by the context could be already rolled back (and even restarted) by another context
+			if (usage.started != start)
+				continue;
+			usage.started = null;
+			for (ContainerDefinition definition : namespace.getAllDefinitions()) {
+				Instance instance = instances.get(definition);
+				if (instance != null && --instance.references <= 0) {
+					instances.remove(definition);
+					String containerId = instance.cancel();
+					if (containerId != null)
+						containerIds.add(containerId);
+				}
+			}
+		}
+		log.warn("Unable to start containers of {}. Remaining starts are cancelled, removing started containers: {}",
+			testName, containerIds, cause);
+		logFailure(removeContainers(containerIds), "Unable to remove containers " + containerIds);
+	}
+
+	/**
+	 * Starts pulling missing images of all the containers planned for the suite. Containers are started after the
+	 * images are pulled.
+	 */
+	private void prefetchImages(Collection<Class<?>> classes) {
+		if (prefetched != null)
+			return;
+		Set<ContainerNamespace> namespaces = resolveNamespaces(classes);
+		namespaces.addAll(usages.keySet());
+		Set<String> images = new TreeSet<>();
+		for (ContainerNamespace namespace : namespaces) {
+			for (ContainerDefinition definition : namespace.getAllDefinitions())
+				images.add(definition.getImage());
+		}
+		prefetched = docker.prefetchImagesAsync(images).handle((durations, e) -> {
+			if (e != null)
+				log.warn("Unable to prefetch images. They will be pulled when containers are started", Docker.unwrap(e));
+			return null;
+		});
+	}
+
+	/**
+	 * Releases all the namespaces acquired by a given test context
+	 */
+	synchronized void release(String testName) {
+		Set<ContainerNamespace> namespaces = acquired.remove(testName);
+		if (namespaces != null) {
+			for (ContainerNamespace namespace : namespaces)
+				release(namespace);
+		}
+		if (usages.isEmpty())
+			logFailure(docker.closeAsync(), "Unable to tear down containers of " + testName);
+	}
+
+	private void release(ContainerNamespace namespace) {
+		Usage usage = usages.get(namespace);
+		if (usage == null || --usage.references > 0)
+			return;
+		usages.remove(namespace);
+		if (usage.started != null) {
+			List<String> containerIds = new ArrayList<>();
+			for (ContainerDefinition definition : namespace.getAllDefinitions()) {
+				Instance instance = instances.get(definition);
+				if (instance != null && --instance.references <= 0) {
+					instances.remove(definition);
+					if (instance.containerId != null)
+						containerIds.add(instance.containerId);
+				}
+			}
+			logFailure(removeContainers(containerIds), "Unable to remove containers " + containerIds);
+		}
+	}
+
+	private static void logFailure(CompletableFuture<?> teardown, String message) {
+		teardown.whenComplete((ignored, e) -> {
+			if (e != null)
+				log.warn(message, Docker.unwrap(e));
+		});
+	}
+
+	/**
+	 * @return output tails of running containers accessible from a given test class by container name
+	 */
+	synchronized Map<String, String> getLogsTails(Class<?> clazz) throws InterruptedException {
+		Map<String, String> tails = new TreeMap<>();
+		for (ContainerNamespace namespace : resolveNamespaces(singleton(clazz))) {
+			for (Map.Entry<String, ContainerDefinition> entry : namespace.getNamedDefinitions().entrySet()) {
+				Instance instance = instances.get(entry.getValue());
+				if (instance != null && instance.containerId != null)
+					tails.put(entry.getKey(), docker.getLogsTail(instance.containerId));
+			}
+		}
+		return tails;
+	}
+
+	synchronized Optional<NotificationMethod> resolveNotificationMethod(Class<?> clazz) {
+		return inspector.resolveNotificationMethod(clazz);
+	}
+
+	/**
+	 * @return namespaces of given classes including all the imported namespaces
+	 */
+	private Set<ContainerNamespace> resolveNamespaces(Collection<Class<?>> classes) {
+		Set<ContainerNamespace> namespaces = newSetFromMap(new IdentityHashMap<>());
+		for (Class<?> clazz : classes) {
+			ContainerNamespace namespace = inspector.createNamespace(clazz);
+			if (namespace != null)
+				collect(namespace, namespaces);
+		}
+		return namespaces;
+	}
+
+	private static void collect(ContainerNamespace namespace, Set<ContainerNamespace> result) {
+		if (result.add(namespace)) {
+			for (ContainerNamespace imported : namespace.getImportNamespaces())
+				collect(imported, result);
+		}
+	}
+
+	private CompletableFuture<Void> start(ContainerNamespace namespace) {
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (ContainerDefinition definition : namespace.getAllDefinitions()) {
+			Instance instance = instanceOf(definition);
+			instance.references++;
+			futures.add(instance.ports.thenAccept(ports -> namespace.registerPublishedTcpPorts(definition, ports)));
+		}
+		return allOrFirstFailure(futures);
+	}
+
+	/**
+	 * Returns instance of a given definition, starting it if needed. Container is started as soon as all its
+	 * dependencies are ready, so independent containers are started in parallel. Dependency graph is guaranteed to be
+	 * acyclic by {@link ContainerNamespace}.
+	 */
+	private Instance instanceOf(ContainerDefinition definition) {
+		Instance instance = instances.get(definition);
+		if (instance == null) {
+			List<CompletableFuture<?>> dependencies = new ArrayList<>();
+			dependencies.add(prefetched);
+			for (ContainerDefinition dependency : definition.getDependencies())
+				dependencies.add(instanceOf(dependency).ports);
+			instance = startInstance(definition, allOrFirstFailure(dependencies));
+			instances.put(definition, instance);
+		}
+		return instance;
+	}
+
+	private void indexDependents(Set<ContainerNamespace> namespaces) {
+		for (ContainerNamespace namespace : namespaces) {
+			for (ContainerDefinition definition : namespace.getAllDefinitions()) {
+				for (ContainerDefinition dependency : definition.getDependencies())
+					dependents.computeIfAbsent(dependency, k -> newSetFromMap(new IdentityHashMap<>())).add(definition);
+			}
+		}
+	}
+
+	/**
+	 * @return expected duration of the longest chain of containers waiting for a given one to be started
+	 */
+	private long getDownstreamDuration(ContainerDefinition definition) {
+		long longest = 0;
+		for (ContainerDefinition dependent : dependents.getOrDefault(definition, emptySet())) {
+			long chain = StartScheduler.saturatedAdd(scheduler.getExpectedDuration(dependent.getImage()),
+				getDownstreamDuration(dependent));
+			longest = Math.max(longest, chain);
+		}
+		return longest;
+	}
+
+	private Instance startInstance(ContainerDefinition definition, CompletableFuture<Void> dependencies) {
+		Instance instance = new Instance();
+		long downstream = getDownstreamDuration(definition);
+		instance.ports = dependencies
+			.thenCompose(ignored -> instance.start(() ->
+				scheduler.submit(definition.getImage(), downstream, releaseSlot -> {
+					// Readiness checks don't load the daemon, so the slot is held only while container is launched
+					CompletableFuture<Void> launched = new CompletableFuture<>();
+					launched.thenRun(releaseSlot);
+					return startContainer(definition, launched);
+				})))
+			.thenCompose(cid -> {
+				instance.containerId = cid;
+				return docker.getPublishedTcpPortsAsync(cid);
+			});
+		return instance;
+	}
+
+	StartStatistics getStartStatistics() {
+		return scheduler.getStatistics();
+	}
+
+	/**
+	 * @param launched future to be completed when the launch phase of the start is finished
+	 * @return future completed with container id when container is ready
+	 */
+	CompletableFuture<String> startContainer(ContainerDefinition definition, CompletableFuture<Void> launched) {
+		return docker.startAsync(definition, launched);
+	}
+
+	/**
+	 * @return future completed when containers are removed. Containers are removed in background
+	 */
+	CompletableFuture<Void> removeContainers(Collection<String> containerIds) {
+		log.debug("Removing containers no longer used by the suite: {}", containerIds);
+		return docker.removeAsync(containerIds);
+	}
+
+	/**
+	 * Cancels pending starts and tears down all the containers in background
+	 *
+	 * @return future completed when all the containers and networks are removed
+	 */
+	synchronized CompletableFuture<Void> closeAsync() {
+		scheduler.close();
+		usages.clear();
+		instances.clear();
+		dependents.clear();
+		planned.clear();
+		acquired.clear();
+		return docker.closeAsync();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			Docker.await(closeAsync());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Usage of a namespace by test contexts
+	 */
+	private static final class Usage {
+
+		int references;
+		CompletableFuture<Void> started;
+	}
+
+	/**
+	 * Running container shared by one or more started namespaces
+	 */
+	private static final class Instance {
+
+		volatile String containerId;
+		CompletableFuture<Map<Integer, Integer>> ports;
+		int references;
+		private CompletableFuture<String> start;
+		private boolean cancelled;
+
+		synchronized String describe() {
+			if (start == null)
+				return "waiting for dependencies";
+			return containerId == null
+				? "waiting for a start slot or being started"
+				: "started as " + containerId + ", waiting for published ports";
+		}
+
+		synchronized CompletableFuture<String> start(Supplier<CompletableFuture<String>> starter) {
+			if (cancelled) {
+				CompletableFuture<String> result = new CompletableFuture<>();
+				result.completeExceptionally(new CancellationException("Start is cancelled"));
+				return result;
+			}
+			start = starter.get();
+			return start;
+		}
+
+		/**
+		 * Cancels the start if it is not finished yet
+		 *
+		 * @return id of a container if it is already started
+		 */
+		synchronized String cancel() {
+			cancelled = true;
+			if (start == null || start.cancel(true) || start.isCompletedExceptionally())
+				return null;
+			return start.join();
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.Selector;
+
+import static me.bazhenov.docker.ConnectProbe.CONNECT_TIMEOUT_MS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ConnectProbeTest {
+
+	@Test
+	public void connectNotEstablishedInTimeShouldBeRetried() throws IOException {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		     Selector selector = Selector.open();
+		     ConnectProbe probe = new ConnectProbe(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()),
+			     Backoff.fixed(20))) {
+
+			probe.poll(selector, 0);
+			assertThat(probe.getDeadline(), is(CONNECT_TIMEOUT_MS));
+
+			// Connection is not reported by the selector in time
+			probe.poll(selector, CONNECT_TIMEOUT_MS);
+			assertThat(probe.isReachable(), is(false));
+			assertThat(probe.getDeadline(), is(CONNECT_TIMEOUT_MS + 20));
+		}
+	}
+
+	@Test
+	public void publishedPortsShouldBeProbedAtRemoteDaemonHost() {
+		String loopback = InetAddress.getLoopbackAddress().getHostAddress();
+		assertThat(Docker.publishedPortsHost(null), is(loopback));
+		assertThat(Docker.publishedPortsHost("unix:///var/run/docker.sock"), is(loopback));
+		assertThat(Docker.publishedPortsHost("tcp://10.0.0.5:2375"), is("10.0.0.5"));
+	}
+}
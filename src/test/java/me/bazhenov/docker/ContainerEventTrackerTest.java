@@ -0,0 +1,106 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ContainerEventTrackerTest {
+
+	@Test
+	public void eventsShouldBeDemultiplexedByContainer() throws Exception {
+		PipedOutputStream events = new PipedOutputStream();
+		try (ContainerEventTracker tracker = new ContainerEventTracker(new PipedInputStream(events))) {
+			tracker.track("c1");
+			tracker.track("c2");
+			CompletableFuture<Void> c1Started = tracker.started("c1");
+			CompletableFuture<Integer> c2Exited = tracker.exited("c2");
+
+			events.write(event("c1", "start", 0));
+			events.write(event("c2", "start", 0));
+			events.write(event("c2", "die", 137));
+			events.flush();
+
+			c1Started.get(5, SECONDS);
+			assertThat(c2Exited.get(5, SECONDS), is(137));
+			assertThat(tracker.exited("c1").isDone(), is(false));
+		}
+	}
+
+	@Test
+	public void eventsShouldBeRecordedBeforeContainerIsTracked() throws Exception {
+		PipedOutputStream events = new PipedOutputStream();
+		try (ContainerEventTracker tracker = new ContainerEventTracker(new PipedInputStream(events))) {
+			events.write(event("c1", "start", 0));
+			events.flush();
+
+			tracker.track("c1");
+			CompletableFuture<Void> started = tracker.started("c1");
+			started.get(5, SECONDS);
+		}
+	}
+
+	@Test
+	public void healthStatusShouldBeTracked() throws Exception {
+		PipedOutputStream events = new PipedOutputStream();
+		try (ContainerEventTracker tracker = new ContainerEventTracker(new PipedInputStream(events))) {
+			tracker.track("c1");
+			tracker.track("c2");
+			events.write(event("c1", "health_status: starting", 0));
+			events.write(event("c1", "health_status: healthy", 0));
+			events.write(event("c2", "health_status: unhealthy", 0));
+			events.flush();
+
+			assertThat(tracker.healthy("c1").get(5, SECONDS), is(true));
+			assertThat(tracker.healthy("c2").get(5, SECONDS), is(false));
+		}
+	}
+
+	@Test
+	public void lookupOfRemovedContainerShouldFail() throws Exception {
+		PipedOutputStream events = new PipedOutputStream();
+		try (ContainerEventTracker tracker = new ContainerEventTracker(new PipedInputStream(events))) {
+			tracker.track("c1");
+			CompletableFuture<Integer> exited = tracker.exited("c1");
+			events.write(event("c1", "destroy", 0));
+			events.flush();
+
+			assertThat(exited.get(5, SECONDS), is(-1));
+			assertThat(tracker.exited("c1").isCompletedExceptionally(), is(true));
+			assertThat(tracker.started("unknown").isCompletedExceptionally(), is(true));
+		}
+	}
+
+	@Test
+	public void trackerShouldBecomeInactiveWhenStreamIsClosed() throws InterruptedException, IOException {
+		ContainerEventTracker tracker = new ContainerEventTracker(new ByteArrayInputStream(event("c1", "start", 0)));
+		for (int i = 0; i < 50 && tracker.isActive(); i++)
+			Thread.sleep(100);
+		assertThat(tracker.isActive(), is(false));
+		tracker.close();
+	}
+
+	@Test
+	public void terminationShouldBeReportedWhenReaderIsStopped() throws Exception {
+		PipedOutputStream events = new PipedOutputStream();
+		ContainerEventTracker tracker = new ContainerEventTracker(new PipedInputStream(events));
+		assertThat(tracker.terminated().isDone(), is(false));
+
+		tracker.close();
+		events.close();
+		tracker.terminated().get(5, SECONDS);
+	}
+
+	private static byte[] event(String id, String action, int exitCode) {
+		return ("{\"status\":\"" + action + "\",\"id\":\"" + id + "\",\"Type\":\"container\",\"Action\":\"" + action +
+			"\",\"Actor\":{\"ID\":\"" + id + "\",\"Attributes\":{\"exitCode\":\"" + exitCode + "\"}}}\n").getBytes(UTF_8);
+	}
+}
@@ -0,0 +1,59 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ContainerLogCaptureTest {
+
+	@Test
+	public void onlyTailOfOutputShouldBeKept() throws InterruptedException {
+		byte[] output = lines(10_000);
+		ContainerLogCapture capture = new ContainerLogCapture("c1", new ByteArrayInputStream(output), 1024, null);
+		capture.awaitCompletion(5000);
+
+		String tail = capture.tail();
+		assertThat(capture.getWrittenBytes(), is((long) output.length));
+		assertThat(tail.length(), lessThanOrEqualTo(1024));
+		assertThat(tail, startsWith("line "));
+		assertThat(tail, endsWith("line 9999\n"));
+	}
+
+	@Test
+	public void chunksShouldBeAppendedInOrder() {
+		ContainerLogCapture capture = new ContainerLogCapture("c1", new ByteArrayInputStream(new byte[0]), 8, null);
+		capture.append("abc\n".getBytes(UTF_8), 0, 4);
+		assertThat(capture.tail(), is("abc\n"));
+		capture.append("def\ngh".getBytes(UTF_8), 0, 6);
+		assertThat(capture.tail(), is("def\ngh"));
+		capture.append("0123456789\nxy".getBytes(UTF_8), 0, 13);
+		assertThat(capture.tail(), is("xy"));
+	}
+
+	@Test
+	public void fullOutputShouldBeSpilledToFile() throws IOException, InterruptedException {
+		byte[] output = lines(1000);
+		Path file = Files.createTempDirectory("logs").resolve("nested/c1.log");
+		ContainerLogCapture capture = new ContainerLogCapture("c1", new ByteArrayInputStream(output), 128, file);
+		capture.awaitCompletion(5000);
+
+		assertThat(Files.readAllBytes(file), is(output));
+	}
+
+	private static byte[] lines(int count) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < count; i++) {
+			byte[] line = ("line " + i + "\n").getBytes(UTF_8);
+			out.write(line, 0, line.length);
+		}
+		return out.toByteArray();
+	}
+}
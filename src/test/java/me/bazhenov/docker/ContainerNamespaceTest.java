@@ -7,6 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static java.util.Collections.emptyList;
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -24,4 +25,26 @@ public class ContainerNamespaceTest {
 		namespace.registerPublishedTcpPorts(def, ports);
 		assertThat(namespace.lookupHostPort(def, 134), is(13));
 	}
+
+	@Test
+	public void cyclicDependenciesShouldBeReported() {
+		ContainerDefinition app = new ContainerDefinition("app");
+		ContainerDefinition db = new ContainerDefinition("db");
+		ContainerDefinition cache = new ContainerDefinition("cache");
+		app.addDependency(db);
+		db.addDependency(cache);
+		cache.addDependency(app);
+		Map<String, ContainerDefinition> definitions = new HashMap<>();
+		definitions.put("app", app);
+		definitions.put("db", db);
+		definitions.put("cache", cache);
+
+		try {
+			new ContainerNamespace(definitions, emptyList());
+			throw new AssertionError("Cycle should be detected");
+		} catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), containsString("Cyclic dependency"));
+			assertThat(e.getMessage(), containsString("db -> cache -> app"));
+		}
+	}
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import java.util.List;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 
 public class DockerAnnotationsInspectorTest {
@@ -57,6 +58,31 @@ public class DockerAnnotationsInspectorTest {
 		assertThat(testCase.getPort(), is(14));
 	}
 
+	@Test
+	public void shouldReadLogPatterns() {
+		ContainerDefinition def = inspector.createNamespace(LogPatternsTestCase.class).getDefinition("mysql");
+		assertThat(def.getLogPatterns(), contains(
+			new LogPatternDef("ready for connections", 2),
+			new LogPatternDef("port: 3306")));
+	}
+
+	@Test
+	public void shouldReadHttpChecks() {
+		ContainerDefinition def = inspector.createNamespace(HttpCheckTestCase.class).getDefinition("app");
+		assertThat(def.getHttpChecks(), contains(new HttpCheckDef(8080, "/health", 204, "")));
+	}
+
+	@Container(name = "app", image = "app", publish = @Port(8080),
+		waitForHttp = @HttpCheck(port = 8080, path = "/health", status = 204))
+	static class HttpCheckTestCase {
+	}
+
+	@Container(name = "mysql", image = "mysql", waitForLog = {
+		@LogPattern(value = "ready for connections", occurrences = 2),
+		@LogPattern("port: 3306")})
+	static class LogPatternsTestCase {
+	}
+
 	@Test
 	public void shouldFindMultipleAnnotationsOnAType() {
 		ContainerNamespace namespace = inspector.createNamespace(TestCase2.class);
@@ -85,6 +111,18 @@ public class DockerAnnotationsInspectorTest {
 		assertThat(case4.size(), is(1));
 	}
 
+	@Test
+	public void dependenciesShouldBeResolvedByName() {
+		ContainerNamespace namespace = inspector.createNamespace(DependentTestCase.class);
+		ContainerDefinition app = namespace.getDefinition("app");
+		assertThat(app.getDependencies(), contains(namespace.getDefinition("shared"), namespace.getDefinition("cache")));
+	}
+
+	@Test(expectedExceptions = IllegalStateException.class)
+	public void unknownDependencyShouldBeReported() {
+		inspector.createNamespace(UnknownDependencyTestCase.class);
+	}
+
 	@Container(name = "foo", image = "image")
 	private static class TestCase1 {
 
@@ -121,6 +159,18 @@ public class DockerAnnotationsInspectorTest {
 
 	}
 
+	@ContainersFrom(LocalSharedContainers.class)
+	@Container(name = "app", image = "app", dependsOn = {"shared", "cache"})
+	@Container(name = "cache", image = "redis")
+	private static class DependentTestCase {
+
+	}
+
+	@Container(name = "app", image = "app", dependsOn = "db")
+	private static class UnknownDependencyTestCase {
+
+	}
+
 	@Container(name = "foo", image = "im", volumes = {
 		@Volume(value = "/opt", atHost = "./", createDirectoryIfMissing = true)
 	})
@@ -0,0 +1,138 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class DockerAsyncTest {
+
+	private StubTransport transport;
+	private String pathToDocker;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		transport = new StubTransport();
+		pathToDocker = fakeDocker("c1").toString();
+	}
+
+	@Test
+	public void publishedPortsShouldBeAvailableAsynchronously() throws Exception {
+		transport.hostPorts.put(6379, 32768);
+		try (Docker docker = new Docker("docker", transport)) {
+			Map<Integer, Integer> ports = docker.getPublishedTcpPortsAsync("redis").get(5, SECONDS);
+			assertThat(ports, hasEntry(6379, 32768));
+			assertThat(docker.inspectAsync("redis").get(5, SECONDS).path("Id").asText(), is("redis"));
+		}
+	}
+
+	@Test
+	public void cancelledStartShouldStopReadinessChecksAndRemoveContainer() throws Exception {
+		transport.states.put("c1", "created");
+		try (Docker docker = new Docker(pathToDocker, transport)) {
+			CompletableFuture<String> start = docker.startAsync(new ContainerDefinition("alpine"));
+			awaitReadinessChecks();
+
+			start.cancel(false);
+			awaitRemoval("containers c1");
+			assertReadinessChecksStopped();
+		}
+	}
+
+	@Test
+	public void startShouldFailWhenDeadlineExpires() throws Exception {
+		transport.states.put("c1", "created");
+		ContainerDefinition definition = new ContainerDefinition("alpine");
+		definition.setStartupTimeoutMs(300);
+		try (Docker docker = new Docker(pathToDocker, transport)) {
+			try {
+				docker.startAsync(definition).get(5, SECONDS);
+				throw new AssertionError("Startup timeout expected");
+			} catch (ExecutionException e) {
+				assertThat(e.getCause().getMessage(), containsString("is not ready in 300ms"));
+				assertThat(e.getCause().getCause(), instanceOf(TimeoutException.class));
+			}
+			awaitRemoval("containers c1");
+			assertReadinessChecksStopped();
+		}
+	}
+
+	@Test
+	public void closeShouldRemoveContainersInBatchesBeforeNetworks() throws Exception {
+		pathToDocker = fakeDocker("c1", "c2", "c3", "c4", "c5").toString();
+		transport.removalDelayMs = 200;
+		Set<Thread> threadsBefore = Thread.getAllStackTraces().keySet();
+		Docker docker = new Docker(pathToDocker, transport);
+		for (int i = 1; i <= 5; i++) {
+			transport.states.put("c" + i, "running");
+			ContainerDefinition definition = new ContainerDefinition("alpine");
+			definition.setNetwork("backend");
+			docker.startAsync(definition).get(5, SECONDS);
+		}
+		Set<Thread> monitors = Thread.getAllStackTraces().keySet().stream()
+			.filter(t -> !threadsBefore.contains(t) && t.getName().equals("docker-readiness-monitor"))
+			.collect(toSet());
+		assertThat(monitors, not(empty()));
+
+		docker.closeAsync().get(5, SECONDS);
+		// Batches are removed in parallel, network is removed only after all of them
+		assertThat(transport.removals, hasSize(3));
+		List<String> batches = transport.removals.subList(0, 2).stream()
+			.map(removal -> removal.substring("containers ".length()))
+			.collect(toList());
+		assertThat(batches.stream().map(batch -> batch.split(",").length).collect(toList()), containsInAnyOrder(4, 1));
+		assertThat(String.join(",", batches).split(","), arrayContainingInAnyOrder("c1", "c2", "c3", "c4", "c5"));
+		assertThat(transport.removals.get(2), is("network backend"));
+		for (Thread monitor : monitors)
+			assertThat(monitor.isAlive(), is(false));
+	}
+
+	private void awaitReadinessChecks() throws InterruptedException {
+		for (int i = 0; i < 50 && transport.inspectCalls.isEmpty(); i++)
+			Thread.sleep(100);
+		assertThat(transport.inspectCalls, not(empty()));
+	}
+
+	private void awaitRemoval(String removal) throws InterruptedException {
+		for (int i = 0; i < 50 && !transport.removals.contains(removal); i++)
+			Thread.sleep(100);
+		assertThat(transport.removals, hasItem(removal));
+	}
+
+	private void assertReadinessChecksStopped() throws InterruptedException {
+		Thread.sleep(200);
+		transport.inspectCalls.clear();
+		Thread.sleep(500);
+		assertThat(transport.inspectCalls, empty());
+	}
+
+	/**
+	 * @return {@code docker} executable reporting given container ids (one per run)
+	 */
+	static Path fakeDocker(String... containerIds) throws IOException {
+		Path directory = Files.createTempDirectory("docker");
+		Path ids = Files.write(directory.resolve("ids"), String.join("\n", containerIds).concat("\n").getBytes(US_ASCII));
+		Path docker = directory.resolve("docker");
+		// Each run takes the first id left
+		Files.write(docker, ("#!/bin/sh\nhead -n 1 '" + ids + "'\ntail -n +2 '" + ids + "' > '" + ids + ".left'\n" +
+			"mv '" + ids + ".left' '" + ids + "'\n").getBytes(US_ASCII));
+		if (!docker.toFile().setExecutable(true))
+			throw new IOException("Unable to make " + docker + " executable");
+		return docker;
+	}
+}
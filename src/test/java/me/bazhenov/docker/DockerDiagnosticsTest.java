@@ -0,0 +1,31 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class DockerDiagnosticsTest {
+
+	@Test
+	public void containerStateShouldBeDescribed() throws IOException {
+		ObjectMapper jsonReader = new ObjectMapper();
+		JsonNode running = jsonReader.readTree(Docker.readFully(getClass().getResourceAsStream("/inspect-example.json")));
+		assertThat(Docker.describeState(running.path(0).path("State")), is("running"));
+
+		JsonNode exited = jsonReader.readTree("{\"Status\":\"exited\",\"ExitCode\":137,\"OOMKilled\":true," +
+			"\"Health\":{\"Status\":\"unhealthy\"}}");
+		assertThat(Docker.describeState(exited), is("exited with code 137, killed by OOM killer, health unhealthy"));
+	}
+
+	@Test
+	public void lastLinesShouldBeKept() {
+		assertThat(Docker.lastLines("a\nb\nc\n", 2), is("b\nc\n"));
+		assertThat(Docker.lastLines("a\nb", 5), is("a\nb"));
+		assertThat(Docker.lastLines("", 5), is(""));
+	}
+}
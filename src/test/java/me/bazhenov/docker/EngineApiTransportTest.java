@@ -0,0 +1,198 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.util.Collections.singleton;
+import static me.bazhenov.docker.FakeEngineApi.respond;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class EngineApiTransportTest {
+
+	private final String inspectExample = Docker.readFully(getClass().getResourceAsStream("/inspect-example.json"));
+	private final String containerJson = new ObjectMapper().readTree(inspectExample).get(0).toString();
+
+	public EngineApiTransportTest() throws IOException {
+	}
+
+	@Test
+	public void connectionShouldBeReusedBetweenRequests() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			respond(out, 200, containerJson);
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			for (int i = 0; i < 3; i++) {
+				String json = transport.inspect("foo");
+				Map<Integer, Integer> ports = Docker.doGetPublishedPorts(new ObjectMapper().readTree(json));
+				assertThat(ports, hasEntry(8888, 1500));
+			}
+			assertThat(api.getConnectionsCount(), is(1));
+			assertThat(api.getRequests(), everyItem(is("GET /containers/foo/json")));
+		}
+	}
+
+	@Test
+	public void shouldReconnectIfDaemonClosedIdleConnection() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			respond(out, 200, containerJson);
+			return false;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			transport.inspect("foo");
+			transport.inspect("foo");
+			assertThat(api.getConnectionsCount(), is(2));
+		}
+	}
+
+	@Test
+	public void nonIdempotentRequestShouldNotBeRepeatedIfConnectionFailedAfterSending() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			if (method.equals("POST"))
+				return false;
+			respond(out, 200, containerJson);
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			transport.inspect("foo");
+			try {
+				transport.createNetwork("foo");
+				throw new AssertionError("Connection failure expected");
+			} catch (IOException e) {
+				assertThat(api.getRequests(), contains("GET /containers/foo/json", "POST /networks/create"));
+			}
+		}
+	}
+
+	@Test
+	public void nonIdempotentRequestShouldNotUseConnectionClosedByDaemon() throws Exception {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			respond(out, method.equals("POST") ? 201 : 200, method.equals("POST") ? "{}" : containerJson);
+			return method.equals("POST");
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			transport.inspect("foo");
+			// Giving the client a chance to see that connection is closed
+			Thread.sleep(100);
+			transport.createNetwork("foo");
+			assertThat(api.getConnectionsCount(), is(2));
+		}
+	}
+
+	@Test
+	public void shouldReadChunkedResponses() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			out.write(("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n" +
+				"3\r\n[{}\r\n" + "1\r\n]\r\n" + "0\r\n\r\n").getBytes(ISO_8859_1));
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			assertThat(transport.inspect("foo", "bar"), is("[[{}],[{}]]"));
+			assertThat(api.getConnectionsCount(), is(1));
+		}
+	}
+
+	@Test
+	public void missingImageShouldBeReported() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			respond(out, path.startsWith("/images/alpine") ? 200 : 404, "{\"Id\":\"sha256:e7d92cdc\"}");
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			assertThat(transport.getImageId("alpine"), is("sha256:e7d92cdc"));
+			assertThat(transport.getImageId("mysql:5.6"), nullValue());
+		}
+	}
+
+	@Test
+	public void execShouldDemultiplexOutputAndCheckExitCode() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			if (path.endsWith("/exec")) {
+				respond(out, 201, "{\"Id\":\"e1\"}");
+			} else if (path.endsWith("/start")) {
+				out.write("HTTP/1.1 200 OK\r\nContent-Type: application/vnd.docker.raw-stream\r\n\r\n".getBytes(ISO_8859_1));
+				writeFrame(out, 1, "hello ");
+				writeFrame(out, 2, "warning");
+				writeFrame(out, 1, "world");
+				return false;
+			} else {
+				respond(out, 200, "{\"ExitCode\":0}");
+			}
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			assertThat(transport.exec("c1", "cat", "/proc/self/net/tcp"), is("hello world"));
+		}
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void nonZeroExecExitCodeShouldBeReported() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			if (path.endsWith("/exec")) {
+				respond(out, 201, "{\"Id\":\"e1\"}");
+			} else if (path.endsWith("/start")) {
+				out.write("HTTP/1.1 200 OK\r\n\r\n".getBytes(ISO_8859_1));
+				return false;
+			} else {
+				respond(out, 200, "{\"ExitCode\":127}");
+			}
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			transport.exec("c1", "sh");
+		}
+	}
+
+	@Test
+	public void logsShouldBeMergedInOrder() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			out.write("HTTP/1.1 200 OK\r\n\r\n".getBytes(ISO_8859_1));
+			writeFrame(out, 1, "starting\n");
+			writeFrame(out, 2, "failed\n");
+			return false;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			assertThat(transport.getLogs("c1", 10), is("starting\nfailed\n"));
+			assertThat(api.getRequests(), contains("GET /containers/c1/logs?stdout=1&stderr=1&tail=10"));
+		}
+	}
+
+	@Test
+	public void followedLogsShouldBeStreamedWithoutFrameHeaders() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			out.write("HTTP/1.1 200 OK\r\n\r\n".getBytes(ISO_8859_1));
+			writeFrame(out, 1, "ready\n");
+			writeFrame(out, 2, "warning\n");
+			return false;
+		}); EngineApiTransport transport = api.createTransport(); InputStream logs = transport.followLogs("c1")) {
+
+			assertThat(Docker.readFully(logs), is("ready\nwarning\n"));
+		}
+	}
+
+	@Test
+	public void missingContainersShouldBeIgnoredOnRemoval() throws IOException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			respond(out, 404, "{\"message\":\"No such container\"}");
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			transport.removeContainers(singleton("c1"));
+			assertThat(api.getRequests(), contains("DELETE /containers/c1?force=1&v=1"));
+		}
+	}
+
+	private static void writeFrame(OutputStream out, int stream, String content) throws IOException {
+		byte[] bytes = content.getBytes(ISO_8859_1);
+		out.write(new byte[]{(byte) stream, 0, 0, 0, 0, 0, 0, (byte) bytes.length});
+		out.write(bytes);
+		out.flush();
+	}
+}
@@ -0,0 +1,116 @@
+package me.bazhenov.docker;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Stand-in for Docker daemon listening on a local TCP port. Each request is passed to a handler which writes raw HTTP
+ * response.
+ */
+class FakeEngineApi implements Closeable {
+
+	interface Handler {
+
+		/**
+		 * @return {@code true} if connection should be kept open
+		 */
+		boolean handle(String method, String path, String body, OutputStream out) throws IOException;
+	}
+
+	private final ServerSocket server;
+	private final Handler handler;
+	private final AtomicInteger connections = new AtomicInteger();
+	private final List<String> requests = new ArrayList<>();
+
+	FakeEngineApi(Handler handler) throws IOException {
+		this.handler = handler;
+		server = new ServerSocket(0);
+		Thread acceptor = new Thread(this::accept, "fake-engine-api");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	EngineApiTransport createTransport() {
+		return new EngineApiTransport(new EngineHttpClient(EngineHttpClient.tcp("localhost", server.getLocalPort())));
+	}
+
+	int getConnectionsCount() {
+		return connections.get();
+	}
+
+	synchronized List<String> getRequests() {
+		return new ArrayList<>(requests);
+	}
+
+	static void respond(OutputStream out, int status, String body) throws IOException {
+		byte[] content = body.getBytes(UTF_8);
+		out.write(("HTTP/1.1 " + status + " Status\r\n" +
+			"Content-Type: application/json\r\n" +
+			"Content-Length: " + content.length + "\r\n\r\n").getBytes(ISO_8859_1));
+		out.write(content);
+		out.flush();
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				connections.incrementAndGet();
+				Thread worker = new Thread(() -> serve(socket), "fake-engine-api-connection");
+				worker.setDaemon(true);
+				worker.start();
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket s = socket) {
+			InputStream in = new BufferedInputStream(s.getInputStream());
+			OutputStream out = s.getOutputStream();
+			String requestLine;
+			while ((requestLine = readLine(in)) != null) {
+				int length = 0;
+				String header;
+				while ((header = readLine(in)) != null && !header.isEmpty()) {
+					if (header.toLowerCase().startsWith("content-length:"))
+						length = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+				}
+				byte[] body = new byte[length];
+				new DataInputStream(in).readFully(body);
+
+				String[] parts = requestLine.split(" ");
+				synchronized (this) {
+					requests.add(parts[0] + " " + parts[1]);
+				}
+				if (!handler.handle(parts[0], parts[1], new String(body, UTF_8), out))
+					return;
+			}
+		} catch (IOException ignored) {
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int b;
+		while ((b = in.read()) >= 0) {
+			if (b == '\n')
+				return line.toString().trim();
+			line.append((char) b);
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+	}
+}
@@ -0,0 +1,130 @@
+package me.bazhenov.docker;
+
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class HttpProbeTest {
+
+	private final AtomicInteger requests = new AtomicInteger();
+	private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+	private volatile int status = 503;
+	private volatile String body = "STARTING";
+	private volatile long delayMs;
+	private HttpServer server;
+	private ScheduledExecutorService scheduler;
+
+	@BeforeMethod
+	public void setUp() throws IOException {
+		requests.set(0);
+		clientPorts.clear();
+		status = 503;
+		body = "STARTING";
+		delayMs = 0;
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/health", exchange -> {
+			requests.incrementAndGet();
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+			try {
+				Thread.sleep(delayMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			byte[] bytes = body.getBytes(UTF_8);
+			exchange.sendResponseHeaders(status, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		});
+		server.start();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		server.stop(0);
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void probeShouldWaitForExpectedResponseReusingConnection() throws Exception {
+		HttpProbe probe = new HttpProbe(url(), new HttpCheckDef(0, "/health", 200, "UP"), Backoff.fixed(20));
+		CompletableFuture<Void> ready = probe.start(scheduler);
+
+		while (requests.get() < 3)
+			Thread.sleep(10);
+		assertThat(ready.isDone(), is(false));
+		assertThat(probe.getLastFailure(), is("status 503"));
+
+		body = "UP";
+		status = 200;
+		ready.get(5, SECONDS);
+		assertThat(clientPorts, hasSize(1));
+	}
+
+	@Test
+	public void bodyShouldBeChecked() throws IOException {
+		status = 200;
+		HttpProbe probe = new HttpProbe(url(), new HttpCheckDef(0, "/health", 200, "\"status\":\\s*\"UP\""),
+			Backoff.fixed(20));
+		assertThat(probe.attempt(), is("body doesn't match /\"status\":\\s*\"UP\"/"));
+
+		body = "{\"status\": \"UP\"}";
+		assertThat(probe.attempt(), nullValue());
+	}
+
+	@Test
+	public void cancelledProbeShouldStop() throws Exception {
+		HttpProbe probe = new HttpProbe(url(), new HttpCheckDef(0, "/health"), Backoff.fixed(20));
+		CompletableFuture<Void> ready = probe.start(scheduler);
+		while (requests.get() < 1)
+			Thread.sleep(10);
+		ready.cancel(false);
+		Thread.sleep(100);
+		int made = requests.get();
+		Thread.sleep(100);
+		assertThat(requests.get(), is(made));
+	}
+
+	@Test
+	public void slowEndpointShouldNotHoldScheduler() throws Exception {
+		delayMs = 1000;
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			HttpProbe probe = new HttpProbe(url(), new HttpCheckDef(0, "/health"), Backoff.fixed(20));
+			CompletableFuture<Void> ready = probe.start(scheduler, executor);
+			while (requests.get() < 1)
+				Thread.sleep(10);
+
+			// Request is in flight, while scheduler is free to run other tasks
+			scheduler.schedule(() -> null, 0, SECONDS).get(500, MILLISECONDS);
+			ready.cancel(false);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private URL url() throws IOException {
+		return new URL("http", "127.0.0.1", server.getAddress().getPort(), "/health");
+	}
+}
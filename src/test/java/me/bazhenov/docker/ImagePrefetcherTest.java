@@ -0,0 +1,60 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static java.util.Arrays.asList;
+import static me.bazhenov.docker.FakeEngineApi.respond;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ImagePrefetcherTest {
+
+	@Test
+	public void missingImagesShouldBePulledOnce() throws IOException, InterruptedException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			if (path.startsWith("/images/create")) {
+				respond(out, 200, "{\"status\":\"Pulling fs layer\"}\n{\"status\":\"Download complete\"}\n");
+			} else {
+				respond(out, path.startsWith("/images/alpine") ? 200 : 404, "{\"Id\":\"sha256:e7d92cdc\"}");
+			}
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			Map<String, Long> pulled = new ImagePrefetcher(transport)
+				.prefetch(asList("alpine", "mysql:5.6", "redis:5", "mysql:5.6"));
+
+			assertThat(pulled.keySet(), containsInAnyOrder("mysql:5.6", "redis:5"));
+			assertThat(api.getRequests(), hasItem("POST /images/create?fromImage=mysql&tag=5.6"));
+			assertThat(api.getRequests(), hasItem("POST /images/create?fromImage=redis&tag=5"));
+			assertThat(api.getRequests(), not(hasItem(startsWith("POST /images/create?fromImage=alpine"))));
+		}
+	}
+
+	@Test
+	public void failedPullShouldNotBeFatal() throws IOException, InterruptedException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			if (path.startsWith("/images/create?fromImage=private")) {
+				respond(out, 200, "{\"status\":\"Pulling\"}\n{\"error\":\"pull access denied\"}\n");
+			} else if (path.startsWith("/images/create")) {
+				respond(out, 200, "{\"status\":\"Download complete\"}\n");
+			} else {
+				respond(out, 404, "{}");
+			}
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+
+			Map<String, Long> pulled = new ImagePrefetcher(transport).prefetch(asList("private/app", "alpine"));
+			assertThat(pulled.keySet(), contains("alpine"));
+		}
+	}
+
+	@Test
+	public void imageNamesShouldBeNormalizedAsListedByDocker() {
+		assertThat(CliTransport.normalizeImageName("alpine"), is("alpine:latest"));
+		assertThat(CliTransport.normalizeImageName("docker.io/library/mysql:5.6"), is("mysql:5.6"));
+		assertThat(CliTransport.normalizeImageName("localhost:5000/app"), is("localhost:5000/app:latest"));
+	}
+}
@@ -0,0 +1,100 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class InspectCoalescerTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+	private StubTransport transport;
+	private InspectCoalescer coalescer;
+
+	@AfterClass
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@BeforeMethod
+	public void setUp() {
+		transport = new StubTransport();
+		transport.states.put("c1", "running");
+		transport.states.put("c2", "exited");
+		coalescer = new InspectCoalescer(transport, InspectExtractor.STATE, executor, 50);
+	}
+
+	@Test
+	public void concurrentRequestsShouldBeIssuedAsSingleCall() throws Exception {
+		CompletableFuture<JsonNode> c1 = coalescer.inspect("c1");
+		CompletableFuture<JsonNode> c2 = coalescer.inspect("c2");
+		CompletableFuture<JsonNode> c1Again = coalescer.inspect("c1");
+
+		assertThat(c1.get(5, SECONDS).at("/State/Status").asText(), is("running"));
+		assertThat(c2.get(5, SECONDS).at("/State/Status").asText(), is("exited"));
+		assertThat(c1Again.get(5, SECONDS).path("Id").asText(), is("c1"));
+		assertThat(transport.inspectCalls, contains(Arrays.asList("c1", "c2")));
+	}
+
+	@Test
+	public void missingContainerShouldNotFailOtherRequests() throws Exception {
+		transport.missing.add("c2");
+		CompletableFuture<JsonNode> c1 = coalescer.inspect("c1");
+		CompletableFuture<JsonNode> c2 = coalescer.inspect("c2");
+
+		assertThat(c1.get(5, SECONDS).path("Id").asText(), is("c1"));
+		try {
+			c2.get(5, SECONDS);
+			throw new AssertionError("Inspect should fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause(), instanceOf(IOException.class));
+		}
+		assertThat(transport.inspectCalls, hasItem(singletonList("c1")));
+	}
+
+	@Test
+	public void containersShouldBeInspectedConcurrentlyIfTransportCanNotBatch() throws Exception {
+		transport.inspectBatched = false;
+		CompletableFuture<JsonNode> c1 = coalescer.inspect("c1");
+		CompletableFuture<JsonNode> c2 = coalescer.inspect("c2");
+
+		assertThat(c1.get(5, SECONDS).path("Id").asText(), is("c1"));
+		assertThat(c2.get(5, SECONDS).path("Id").asText(), is("c2"));
+		assertThat(transport.inspectCalls, containsInAnyOrder(singletonList("c1"), singletonList("c2")));
+	}
+
+	@Test
+	public void containersShouldBeFoundByIdNameOrUniquePrefix() throws IOException {
+		JsonNode root = new ObjectMapper().readTree("[{\"Id\":\"abc123\",\"Name\":\"/web\"}," +
+			"{\"Id\":\"abc456\",\"Name\":\"/abc123\"},{\"Id\":\"def789\",\"Name\":\"/abc\"}]");
+
+		assertThat(InspectCoalescer.find(root, "abc123").path("Name").asText(), is("/web"));
+		assertThat(InspectCoalescer.find(root, "web").path("Id").asText(), is("abc123"));
+		assertThat(InspectCoalescer.find(root, "abc").path("Id").asText(), is("def789"));
+		assertThat(InspectCoalescer.find(root, "abc4").path("Id").asText(), is("abc456"));
+		assertThat(InspectCoalescer.find(root, "ab"), nullValue());
+		assertThat(InspectCoalescer.find(root, "xyz"), nullValue());
+	}
+
+	@Test
+	public void cancellationByOneCallerShouldNotAffectOthers() throws Exception {
+		CompletableFuture<JsonNode> first = coalescer.inspect("c1");
+		CompletableFuture<JsonNode> second = coalescer.inspect("c1");
+		first.cancel(false);
+
+		assertThat(second.get(5, SECONDS).path("Id").asText(), is("c1"));
+	}
+}
@@ -0,0 +1,69 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares extraction of container state and published ports from {@code docker inspect} output using full tree and
+ * streaming {@link InspectExtractor}. {@code large} document is the example with 200 environment variables and 50
+ * mounts added.
+ * <p>
+ * Run with: {@code java -cp target/test-classes:target/classes:<test classpath> org.openjdk.jmh.Main InspectExtractor}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InspectExtractorBenchmark {
+
+	private static final ObjectMapper jsonReader = new ObjectMapper();
+
+	@Param({"example", "large"})
+	public String document;
+
+	private String json;
+
+	@Setup
+	public void setUp() throws IOException {
+		json = Docker.readFully(getClass().getResourceAsStream("/inspect-example.json"));
+		if ("large".equals(document)) {
+			ArrayNode root = (ArrayNode) jsonReader.readTree(json);
+			ObjectNode container = (ObjectNode) root.get(0);
+			ArrayNode env = ((ObjectNode) container.get("Config")).putArray("Env");
+			for (int i = 0; i < 200; i++)
+				env.add("VARIABLE_" + i + "=some moderately long value of the variable number " + i);
+			ArrayNode mounts = container.putArray("Mounts");
+			for (int i = 0; i < 50; i++) {
+				mounts.addObject()
+					.put("Source", "/var/lib/docker/volumes/volume-" + i + "/_data")
+					.put("Destination", "/data/" + i)
+					.put("Mode", "rw")
+					.put("RW", true);
+			}
+			json = jsonReader.writeValueAsString(root);
+		}
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> fullTree() throws IOException {
+		JsonNode container = jsonReader.readTree(json).path(0);
+		container.at("/State/Status").asText();
+		return Docker.publishedPorts(container);
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> streaming() throws IOException {
+		JsonNode container = InspectExtractor.STATE.extract(json).path(0);
+		container.at("/State/Status").asText();
+		return Docker.publishedPorts(container);
+	}
+}
@@ -0,0 +1,67 @@
+package me.bazhenov.docker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class InspectExtractorTest {
+
+	private final String example = Docker.readFully(getClass().getResourceAsStream("/inspect-example.json"));
+
+	@Test
+	public void onlySelectedFieldsShouldBeExtracted() throws IOException {
+		JsonNode container = InspectExtractor.STATE.extract(example).path(0);
+
+		assertThat(container.path("Name").asText(), is("/jupyter"));
+		assertThat(container.at("/State/Status").asText(), is("running"));
+		assertThat(container.at("/State/Pid").asInt(), is(4584));
+		assertThat(Docker.publishedPorts(container), hasEntry(8888, 1500));
+		assertThat(container.has("Config"), is(false));
+		assertThat(container.has("Mounts"), is(false));
+		assertThat(container.path("NetworkSettings").size(), is(1));
+	}
+
+	@Test
+	public void wholeContainersShouldBeExtractedIfNoFieldsSelected() throws IOException {
+		JsonNode container = InspectExtractor.ALL.extract(example).path(0);
+
+		assertThat(container.at("/State/Status").asText(), is("running"));
+		assertThat(container.has("Config"), is(true));
+		assertThat(container.has("Mounts"), is(true));
+	}
+
+	@Test
+	public void nestedFieldsShouldBeExtracted() throws IOException {
+		JsonNode container = new InspectExtractor("Config/Labels").extract(example).path(0);
+
+		assertThat(container.at("/Config/Labels/com.docker.compose.service").asText(), is("jupyter"));
+		assertThat(container.path("Config").size(), is(1));
+	}
+
+	@Test
+	public void nullValuesShouldBeKept() throws IOException {
+		JsonNode container = InspectExtractor.STATE.extract("[{\"Id\":\"c1\",\"NetworkSettings\":{\"Ports\":null}," +
+			"\"Mounts\":[{\"Source\":\"/tmp\"}]}]").path(0);
+
+		assertThat(container.at("/NetworkSettings/Ports").isNull(), is(true));
+		assertThat(Docker.publishedPorts(container).isEmpty(), is(true));
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void malformedOutputShouldBeReported() throws IOException {
+		InspectExtractor.STATE.extract("{\"message\":\"No such container\"}");
+	}
+
+	@Test
+	public void tcpPortsShouldBeParsed() {
+		assertThat(Docker.parseTcpPort("8080/tcp"), is(8080));
+		assertThat(Docker.parseTcpPort("53/udp"), is(-1));
+		assertThat(Docker.parseTcpPort("http/tcp"), is(-1));
+		assertThat(Docker.parseTcpPort("/tcp"), is(-1));
+		assertThat(Docker.parseTcpPort("1234567/tcp"), is(-1));
+	}
+}
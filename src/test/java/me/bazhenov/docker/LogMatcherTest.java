@@ -0,0 +1,65 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutionException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class LogMatcherTest {
+
+	@Test
+	public void linesSplitBetweenChunksShouldBeMatched() {
+		LogMatcher matcher = new LogMatcher(singletonList(new LogPatternDef("ready for connections")));
+		feed(matcher, "starting\nready for ");
+		assertThat(matcher.getMatched().isDone(), is(false));
+		feed(matcher, "conn");
+		feed(matcher, "ections\r\n");
+		assertThat(matcher.getMatched().isDone(), is(true));
+	}
+
+	@Test
+	public void allPatternsShouldBeMatchedRequiredNumberOfTimes() {
+		LogMatcher matcher = new LogMatcher(asList(
+			new LogPatternDef("ready for connections", 2),
+			new LogPatternDef("port: \\d+")));
+		feed(matcher, "ready for connections\nport: 3306\n");
+		assertThat(matcher.getMatched().isDone(), is(false));
+		assertThat(matcher.describeUnsatisfied(), is("/ready for connections/ x2 (1 more)"));
+
+		feed(matcher, "ready for connections\n");
+		assertThat(matcher.getMatched().isDone(), is(true));
+	}
+
+	@Test
+	public void longLinesShouldBeTruncated() {
+		LogMatcher matcher = new LogMatcher(singletonList(new LogPatternDef("^started$")));
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < LogMatcher.MAX_LINE_LENGTH * 2; i++)
+			line.append('x');
+		feed(matcher, line.append("started\nstarted\n").toString());
+		assertThat(matcher.getMatched().isDone(), is(true));
+	}
+
+	@Test
+	public void endOfOutputShouldFailMatching() throws InterruptedException {
+		LogMatcher matcher = new LogMatcher(singletonList(new LogPatternDef("started")));
+		feed(matcher, "exiting");
+		matcher.finish();
+		try {
+			matcher.getMatched().get();
+			throw new AssertionError("Matching should fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), containsString("/started/ (1 more)"));
+		}
+	}
+
+	private static void feed(LogMatcher matcher, String chunk) {
+		byte[] bytes = chunk.getBytes(UTF_8);
+		matcher.feed(bytes, 0, bytes.length);
+	}
+}
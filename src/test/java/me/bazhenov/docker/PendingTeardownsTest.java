@@ -0,0 +1,35 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class PendingTeardownsTest {
+
+	private PendingTeardowns teardowns;
+
+	@BeforeMethod
+	public void setUp() {
+		teardowns = new PendingTeardowns();
+	}
+
+	@Test
+	public void pendingTeardownShouldBeAwaited() {
+		CompletableFuture<Void> teardown = teardowns.track(new CompletableFuture<>());
+		assertThat(teardowns.awaitAll(50), is(false));
+
+		teardown.complete(null);
+		assertThat(teardowns.awaitAll(50), is(true));
+	}
+
+	@Test
+	public void failedTeardownShouldNotBeAwaited() {
+		CompletableFuture<Void> teardown = teardowns.track(new CompletableFuture<>());
+		teardown.completeExceptionally(new IllegalStateException("Failed"));
+		assertThat(teardowns.awaitAll(50), is(true));
+	}
+}
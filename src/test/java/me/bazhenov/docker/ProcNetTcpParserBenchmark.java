@@ -0,0 +1,56 @@
+package me.bazhenov.docker;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Measures parsing of {@code /proc/net/tcp} table with 10k sockets.
+ * <p>
+ * Run with: {@code java -cp target/test-classes:target/classes:<test classpath> org.openjdk.jmh.Main ProcNetTcpParser}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProcNetTcpParserBenchmark {
+
+	private static final int LINES = 10_000;
+
+	private byte[] table;
+	private String tableAsString;
+	private final BitSet ports = new BitSet();
+
+	@Setup
+	public void setUp() {
+		String example = Docker.readFully(getClass().getResourceAsStream("/proc-net-tcp.example"));
+		String[] lines = example.split("\n");
+		StringBuilder result = new StringBuilder(lines[0]).append('\n');
+		for (int i = 0; i < LINES; i++) {
+			// Every tenth socket is listening, the rest are established connections
+			String state = i % 10 == 0 ? " 0A " : " 01 ";
+			result.append(String.format("%4d: 0100007F:%04X 0100007F:9C40%s00000000:00000000 00:00000000 00000000     " +
+				"0        0 15662 1 ffff8800baf1c780 100 0 0 10 0\n", i, 1024 + i, state));
+		}
+		tableAsString = result.toString();
+		table = tableAsString.getBytes(US_ASCII);
+	}
+
+	@Benchmark
+	public BitSet parse() {
+		ports.clear();
+		ProcNetTcpParser.parse(table, 0, table.length, ports);
+		return ports;
+	}
+
+	@Benchmark
+	public Set<Integer> readListenPorts() {
+		return Docker.readListenPorts(tableAsString);
+	}
+}
@@ -0,0 +1,69 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.BitSet;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class ProcNetTcpParserTest {
+
+	private static final String HEADER = "  sl  local_address rem_address   st tx_queue rx_queue tr tm->when retrnsmt   uid  " +
+		"timeout inode\n";
+
+	@Test
+	public void onlyListeningSocketsShouldBeReported() {
+		String table = HEADER +
+			"   0: 00000000:04D2 00000000:0000 0A 00000000:00000000 00:00000000 00000000     0        0 15662 1\n" +
+			"   1: 0100007F:04D3 0100007F:9C40 01 00000000:00000000 00:00000000 00000000     0        0 15663 1\n" +
+			"   2: 0100007F:1F90 00000000:0000 0A 00000000:00000000 00:00000000 00000000     0        0 15664 1\n";
+
+		BitSet ports = parse(table);
+		assertThat(ports.cardinality(), is(2));
+		assertThat(ports.get(1234), is(true));
+		assertThat(ports.get(8080), is(true));
+	}
+
+	@Test
+	public void ipv6TablesShouldBeSupported() {
+		String table = HEADER +
+			"   0: 00000000000000000000000000000000:1F90 00000000000000000000000000000000:0000 0A 00000000:00000000 " +
+			"00:00000000 00000000     0        0 16262 1 0000000000000000 100 0 0 10 0";
+
+		BitSet ports = parse(table);
+		assertThat(ports.cardinality(), is(1));
+		assertThat(ports.get(8080), is(true));
+	}
+
+	@Test
+	public void emptyAndMalformedLinesShouldBeIgnored() {
+		assertThat(parse("").isEmpty(), is(true));
+		assertThat(parse(HEADER).isEmpty(), is(true));
+		assertThat(parse(HEADER + "\n\ngarbage\n").isEmpty(), is(true));
+	}
+
+	@Test
+	public void largeTablesShouldBeReadFromStream() throws IOException {
+		StringBuilder table = new StringBuilder(HEADER);
+		for (int i = 0; i < 10_000; i++) {
+			table.append(String.format("%4d: 00000000:%04X 00000000:0000 0A 00000000:00000000 00:00000000 00000000     " +
+				"0        0 15662 1\n", i, 1000 + i));
+		}
+
+		BitSet ports = new BitSet();
+		new ProcNetTcpParser().read(new ByteArrayInputStream(table.toString().getBytes(US_ASCII)), ports);
+		assertThat(ports.cardinality(), is(10_000));
+		assertThat(ports.get(10_999), is(true));
+	}
+
+	private static BitSet parse(String table) {
+		byte[] bytes = table.getBytes(US_ASCII);
+		BitSet ports = new BitSet();
+		ProcNetTcpParser.parse(bytes, 0, bytes.length, ports);
+		return ports;
+	}
+}
@@ -0,0 +1,40 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ProcessExecutionTest {
+
+	@Test(timeOut = 10000)
+	public void executionShouldNotBlockOnLargeStderr() throws IOException, InterruptedException {
+		Docker.ExecutionResult result = Docker.doExecute(asList("sh", "-c", "head -c 500000 /dev/zero >&2; echo done"),
+			singleton(0));
+		assertThat(result.standardOutput.trim(), is("done"));
+		assertThat(result.errorOutput.length(), is(500000));
+	}
+
+	@Test(timeOut = 10000)
+	public void outputShouldBeStreamedToHandler() throws IOException, InterruptedException {
+		List<String> lines = new ArrayList<>();
+		int exitCode = Docker.doExecuteAndStream(asList("sh", "-c",
+			"head -c 500000 /dev/zero >&2; seq 1 100000; exit 3"), in -> {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(in, US_ASCII));
+			for (int i = 0; i < 10; i++)
+				lines.add(reader.readLine());
+		});
+		assertThat(exitCode, is(3));
+		assertThat(lines, hasSize(10));
+		assertThat(lines.get(9), is("10"));
+	}
+}
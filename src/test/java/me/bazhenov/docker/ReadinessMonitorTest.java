@@ -0,0 +1,243 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.Files.createDirectories;
+import static java.nio.file.Files.createTempDirectory;
+import static java.nio.file.Files.write;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static me.bazhenov.docker.Docker.readFully;
+import static me.bazhenov.docker.ReadinessMonitor.pollDelay;
+import static me.bazhenov.docker.ReadinessMonitor.readHostTcpTable;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ReadinessMonitorTest {
+
+	private StubTransport transport;
+	private ReadinessMonitor monitor;
+
+	@BeforeMethod
+	public void setUp() {
+		transport = new StubTransport();
+		monitor = new ReadinessMonitor(transport);
+	}
+
+	@AfterMethod
+	public void tearDown() {
+		monitor.close();
+	}
+
+	@Test
+	public void containersShouldBeInspectedInBatches() throws Exception {
+		transport.states.put("c1", "created");
+		transport.states.put("c2", "created");
+		CompletableFuture<Void> c1 = monitor.register("c1", new ContainerDefinition("alpine"), emptyList(), null);
+		CompletableFuture<Void> c2 = monitor.register("c2", new ContainerDefinition("alpine"), emptyList(), null);
+
+		Thread.sleep(300);
+		transport.states.put("c1", "running");
+		transport.states.put("c2", "running");
+
+		c1.get(5, SECONDS);
+		c2.get(5, SECONDS);
+		assertThat(transport.inspectCalls, hasItem(Arrays.asList("c1", "c2")));
+	}
+
+	@Test
+	public void exitedContainerShouldBeReported() throws Exception {
+		transport.states.put("c1", "exited");
+		CompletableFuture<Void> c1 = monitor.register("c1", new ContainerDefinition("alpine"), emptyList(), null);
+		try {
+			c1.get(5, SECONDS);
+			throw new AssertionError("Container should fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), containsString("current state is exited"));
+		}
+	}
+
+	@Test
+	public void containerShouldBeReadyWhenHealthy() throws Exception {
+		transport.states.put("c1", "running");
+		transport.health.put("c1", "starting");
+		ContainerDefinition definition = new ContainerDefinition("mysql");
+		definition.setWaitForHealthy(true);
+		CompletableFuture<Void> c1 = monitor.register("c1", definition, emptyList(), null);
+
+		Thread.sleep(300);
+		assertThat(c1.isDone(), is(false));
+		transport.health.put("c1", "healthy");
+
+		c1.get(5, SECONDS);
+	}
+
+	@Test
+	public void unhealthyContainerShouldBeReported() throws Exception {
+		transport.states.put("c1", "running");
+		transport.health.put("c1", "unhealthy");
+		ContainerDefinition definition = new ContainerDefinition("mysql");
+		definition.setWaitForHealthy(true);
+		CompletableFuture<Void> c1 = monitor.register("c1", definition, emptyList(), null);
+		try {
+			c1.get(5, SECONDS);
+			throw new AssertionError("Container should fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), containsString("is unhealthy. Last check output: connection refused"));
+		}
+	}
+
+	@Test
+	public void containerWithoutHealthcheckShouldBeReported() throws Exception {
+		transport.states.put("c1", "running");
+		ContainerDefinition definition = new ContainerDefinition("alpine");
+		definition.setWaitForHealthy(true);
+		CompletableFuture<Void> c1 = monitor.register("c1", definition, emptyList(), null);
+		try {
+			c1.get(5, SECONDS);
+			throw new AssertionError("Container should fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), containsString("has no healthcheck"));
+		}
+	}
+
+	@Test
+	public void portsShouldBeCheckedUsingExec() throws Exception {
+		transport.states.put("c1", "running");
+		ContainerDefinition definition = new ContainerDefinition("alpine");
+		definition.addPublishedPort(1234);
+		CompletableFuture<Void> c1 = monitor.register("c1", definition, Collections.singletonList("/proc/self/net/tcp"),
+			null);
+
+		Thread.sleep(300);
+		assertThat(c1.isDone(), is(false));
+		assertThat(monitor.describe("c1"), is("listening ports {} of expected {1234}"));
+		transport.tcpTable = Docker.readFully(getClass().getResourceAsStream("/proc-net-tcp.example"));
+
+		c1.get(5, SECONDS);
+	}
+
+	@Test
+	public void hostConnectShouldWaitForPortToBeReachable() throws Exception {
+		int port = freePort();
+		transport.states.put("c1", "running");
+		transport.hostPorts.put(1234, port);
+		ContainerDefinition definition = new ContainerDefinition("alpine");
+		definition.addPublishedPort(1234);
+		definition.setPortsCheck(PortsCheck.HOST_CONNECT);
+		definition.setProbeBackoff(Backoff.fixed(20));
+		CompletableFuture<Void> c1 = monitor.register("c1", definition, emptyList(), null);
+
+		Thread.sleep(300);
+		assertThat(c1.isDone(), is(false));
+
+		try (ServerSocket ignored = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+			c1.get(5, SECONDS);
+		}
+		assertThat(transport.execCalls.get(), is(0));
+	}
+
+	@Test
+	public void connectionsClosedByProxyShouldNotBeConsideredReachable() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+			Thread proxy = new Thread(() -> {
+				while (!server.isClosed()) {
+					try {
+						server.accept().close();
+					} catch (IOException e) {
+						return;
+					}
+				}
+			});
+			proxy.setDaemon(true);
+			proxy.start();
+
+			transport.states.put("c1", "running");
+			transport.hostPorts.put(1234, server.getLocalPort());
+			ContainerDefinition definition = new ContainerDefinition("alpine");
+			definition.addPublishedPort(1234);
+			definition.setPortsCheck(PortsCheck.HOST_CONNECT);
+			CompletableFuture<Void> c1 = monitor.register("c1", definition, emptyList(), null);
+
+			Thread.sleep(500);
+			assertThat(c1.isDone(), is(false));
+		}
+	}
+
+	@Test
+	public void monitorShouldBeReusableRightAfterClose() throws Exception {
+		transport.states.put("c1", "created");
+		transport.states.put("c2", "running");
+		CompletableFuture<Void> c1 = monitor.register("c1", new ContainerDefinition("alpine"), emptyList(), null);
+		CompletableFuture<Void> stopped = monitor.closeAsync();
+		CompletableFuture<Void> c2 = monitor.register("c2", new ContainerDefinition("alpine"), emptyList(), null);
+
+		stopped.get(5, SECONDS);
+		c2.get(5, SECONDS);
+		try {
+			c1.get(5, SECONDS);
+			throw new AssertionError("Container should fail");
+		} catch (ExecutionException e) {
+			assertThat(e.getCause().getMessage(), containsString("Readiness monitor is stopped"));
+		}
+	}
+
+	@Test
+	public void wakeUpShouldCheckOnlyGivenContainer() throws Exception {
+		transport.states.put("c1", "created");
+		transport.states.put("c2", "created");
+		monitor.register("c1", new ContainerDefinition("alpine"), emptyList(), null, 10_000);
+		monitor.register("c2", new ContainerDefinition("alpine"), emptyList(), null, 10_000);
+
+		Thread.sleep(200);
+		transport.inspectCalls.clear();
+		monitor.wakeUp("c1");
+		Thread.sleep(200);
+		assertThat(transport.inspectCalls, contains(singletonList("c1")));
+	}
+
+	@Test
+	public void pollingShouldBeDenseAroundExpectedTime() {
+		assertThat(pollDelay(-1, 0, 200), is(200L));
+		assertThat(pollDelay(10_000, 0, 200), is(1000L));
+		assertThat(pollDelay(10_000, 9_000, 200), is(500L));
+		assertThat(pollDelay(10_000, 9_900, 200), is(50L));
+		assertThat(pollDelay(10_000, 15_000, 200), is(50L));
+		assertThat(pollDelay(10_000, 25_000, 200), is(200L));
+	}
+
+	@Test
+	public void tcpTablesShouldBeReadFromHostProcDirectory() throws IOException {
+		Path proc = createTempDirectory("proc");
+		createDirectories(proc.resolve("net"));
+		write(proc.resolve("net/tcp"), readFully(getClass().getResourceAsStream("/proc-net-tcp.example")).getBytes(US_ASCII));
+
+		ProcNetTcpParser parser = new ProcNetTcpParser();
+		BitSet ports = new BitSet();
+		assertThat(readHostTcpTable(parser, proc, "/proc/self/net/tcp", ports), is(true));
+		assertThat(readHostTcpTable(parser, proc, "/proc/self/net/tcp6", ports), is(true));
+		assertThat(readHostTcpTable(parser, proc, "/tmp/tcp", ports), is(false));
+		assertThat(ports.cardinality(), is(1));
+		assertThat(ports.get(1234), is(true));
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static me.bazhenov.docker.FakeEngineApi.respond;
+import static me.bazhenov.docker.ReusableContainers.fingerprint;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class ReusableContainersTest {
+
+	@Test
+	public void fingerprintShouldDependOnlyOnContainerRuntimeProperties() {
+		ContainerDefinition a = new ContainerDefinition("mysql:5.6", "mysqld");
+		a.addEnvironment("MYSQL_ROOT_PASSWORD", "secret");
+		a.addEnvironment("MYSQL_DATABASE", "db");
+		a.addPublishedPort(3306);
+
+		ContainerDefinition b = new ContainerDefinition("mysql:5.6", "mysqld");
+		b.addPublishedPort(3306);
+		b.addEnvironment("MYSQL_DATABASE", "db");
+		b.addEnvironment("MYSQL_ROOT_PASSWORD", "secret");
+		b.setPortsCheck(PortsCheck.HOST_CONNECT);
+
+		assertThat(fingerprint(a, "sha256:1"), is(fingerprint(b, "sha256:1")));
+		assertThat(fingerprint(a, "sha256:1"), not(fingerprint(a, "sha256:2")));
+
+		b.addCustomOption("--tmpfs=/var/lib/mysql");
+		assertThat(fingerprint(a, "sha256:1"), not(fingerprint(b, "sha256:1")));
+	}
+
+	@Test
+	public void runningContainerShouldBeAdopted() throws IOException, InterruptedException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			respond(out, 200, path.contains("fingerprint%3Dabc") ? "[{\"Id\":\"c1\"}]" : "[]");
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+			Path state = Files.createTempDirectory("reuse");
+			ReusableContainers containers = new ReusableContainers(transport, state, HOURS.toMillis(1));
+
+			assertThat(containers.adopt("abc"), is("c1"));
+			assertThat(containers.adopt("def"), nullValue());
+			assertThat(Files.exists(state.resolve("abc")), is(true));
+		}
+	}
+
+	@Test
+	public void idleContainersShouldBeReaped() throws IOException, InterruptedException {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			if (path.startsWith("/containers/json")) {
+				respond(out, 200, "[{\"Id\":\"c1\"},{\"Id\":\"c2\"}]");
+			} else if (method.equals("GET")) {
+				String id = path.split("/")[2];
+				String fingerprint = id.equals("c1") ? "fresh" : "stale";
+				respond(out, 200, "{\"Id\":\"" + id + "\",\"Config\":{\"Labels\":{\"" +
+					ReusableContainers.FINGERPRINT_LABEL + "\":\"" + fingerprint + "\"}}}");
+			} else {
+				respond(out, 204, "");
+			}
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+			Path state = Files.createTempDirectory("reuse");
+			ReusableContainers containers = new ReusableContainers(transport, state, HOURS.toMillis(1));
+			Files.createFile(state.resolve("fresh"));
+			Files.createFile(state.resolve("stale"));
+			Files.setLastModifiedTime(state.resolve("stale"), FileTime.fromMillis(System.currentTimeMillis() -
+				HOURS.toMillis(2)));
+
+			containers.reapExpired();
+			assertThat(api.getRequests(), hasItem(startsWith("GET /containers/json?all=1&")));
+			assertThat(api.getRequests(), hasItem("DELETE /containers/c2?force=1&v=1"));
+			assertThat(api.getRequests(), not(hasItem("DELETE /containers/c1?force=1&v=1")));
+			assertThat(Files.exists(state.resolve("stale")), is(false));
+		}
+	}
+
+	@Test
+	public void expiredContainersShouldBeReapedDuringLongRuns() throws Exception {
+		try (FakeEngineApi api = new FakeEngineApi((method, path, body, out) -> {
+			respond(out, 200, "[]");
+			return true;
+		}); EngineApiTransport transport = api.createTransport()) {
+			Path state = Files.createTempDirectory("reuse");
+			ReusableContainers containers = new ReusableContainers(transport, state, 500);
+
+			containers.adopt("abc");
+			containers.adopt("abc");
+			Thread.sleep(600);
+			containers.adopt("abc");
+			long reaps = api.getRequests().stream().filter(r -> r.startsWith("GET /containers/json?all=1&")).count();
+			assertThat(reaps, is(2L));
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StartSchedulerTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@AfterClass
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void concurrencyShouldBeBounded() throws Exception {
+		AtomicInteger active = new AtomicInteger();
+		AtomicInteger maxActive = new AtomicInteger();
+		List<CompletableFuture<String>> futures = new ArrayList<>();
+		try (StartScheduler scheduler = new StartScheduler(2)) {
+			for (int i = 0; i < 6; i++) {
+				futures.add(scheduler.submit("alpine", async(() -> {
+					maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+					Thread.sleep(50);
+					active.decrementAndGet();
+					return "ok";
+				})));
+			}
+			for (CompletableFuture<String> future : futures)
+				assertThat(future.get(5, SECONDS), is("ok"));
+
+			assertThat(maxActive.get(), is(2));
+			StartStatistics statistics = scheduler.getStatistics();
+			assertThat(statistics.getCompletedStarts(), is(6));
+			assertThat(statistics.getActiveStarts(), is(0));
+			assertThat(statistics.getQueuedStarts(), is(0));
+			assertThat(statistics.getMaxQueueWaitMs(), greaterThan(0L));
+		}
+	}
+
+	@Test
+	public void slowestImagesShouldBeStartedFirst() throws Exception {
+		try (StartScheduler scheduler = new StartScheduler(1)) {
+			scheduler.submit("fast", async(() -> null)).get(5, SECONDS);
+			scheduler.submit("slow", async(() -> {
+				Thread.sleep(100);
+				return null;
+			})).get(5, SECONDS);
+
+			CountDownLatch blocker = new CountDownLatch(1);
+			List<String> order = Collections.synchronizedList(new ArrayList<>());
+			CompletableFuture<?> blocking = scheduler.submit("blocking", async(() -> blocker.await(5, SECONDS)));
+			CompletableFuture<?> fast = scheduler.submit("fast", async(() -> order.add("fast")));
+			CompletableFuture<?> slow = scheduler.submit("slow", async(() -> order.add("slow")));
+			blocker.countDown();
+			CompletableFuture.allOf(blocking, fast, slow).get(5, SECONDS);
+
+			assertThat(order, contains("slow", "fast"));
+		}
+	}
+
+	@Test
+	public void startsOnLongerCriticalPathShouldBeStartedFirst() throws Exception {
+		try (StartScheduler scheduler = new StartScheduler(1, image -> image.equals("mysql") ? 5000 : 100)) {
+			CountDownLatch blocker = new CountDownLatch(1);
+			List<String> order = Collections.synchronizedList(new ArrayList<>());
+			CompletableFuture<?> blocking = scheduler.submit("blocking", async(() -> blocker.await(5, SECONDS)));
+			CompletableFuture<?> mysql = scheduler.submit("mysql", async(() -> order.add("mysql")));
+			CompletableFuture<?> redis = scheduler.submit("redis", 10_000, async(() -> order.add("redis")));
+			CompletableFuture<?> nginx = scheduler.submit("nginx", async(() -> order.add("nginx")));
+			blocker.countDown();
+			CompletableFuture.allOf(blocking, mysql, redis, nginx).get(5, SECONDS);
+
+			assertThat(order, contains("redis", "mysql", "nginx"));
+		}
+	}
+
+	@Test
+	public void failedStartShouldBeReported() throws Exception {
+		try (StartScheduler scheduler = new StartScheduler(1)) {
+			CompletableFuture<Object> future = scheduler.submit("alpine", () -> {
+				throw new IllegalStateException("Unable to start");
+			});
+			try {
+				future.get(5, SECONDS);
+				throw new AssertionError("Start should fail");
+			} catch (ExecutionException e) {
+				assertThat(e.getCause().getMessage(), is("Unable to start"));
+			}
+		}
+	}
+
+	@Test
+	public void slotShouldBeOccupiedUntilStartIsCompleted() throws Exception {
+		try (StartScheduler scheduler = new StartScheduler(1)) {
+			CompletableFuture<String> first = new CompletableFuture<>();
+			scheduler.submit("first", () -> first);
+			CompletableFuture<String> second = scheduler.submit("second", () -> CompletableFuture.completedFuture("ok"));
+
+			assertThat(second.isDone(), is(false));
+			assertThat(scheduler.getStatistics().getQueuedStarts(), is(1));
+			first.complete("ok");
+			assertThat(second.get(5, SECONDS), is("ok"));
+			assertThat(scheduler.getStatistics().getCompletedStarts(), is(2));
+		}
+	}
+
+	@Test
+	public void slotCouldBeReleasedBeforeStartIsCompleted() throws Exception {
+		try (StartScheduler scheduler = new StartScheduler(1)) {
+			CompletableFuture<String> first = new CompletableFuture<>();
+			CompletableFuture<String> firstResult = scheduler.submit("first", 0, releaseSlot -> {
+				releaseSlot.run();
+				releaseSlot.run();
+				return first;
+			});
+			CompletableFuture<String> second = scheduler.submit("second", () -> CompletableFuture.completedFuture("ok"));
+
+			assertThat(second.get(5, SECONDS), is("ok"));
+			assertThat(firstResult.isDone(), is(false));
+			assertThat(scheduler.getStatistics().getActiveStarts(), is(0));
+			first.complete("ok");
+			assertThat(firstResult.get(5, SECONDS), is("ok"));
+			assertThat(scheduler.getStatistics().getActiveStarts(), is(0));
+			assertThat(scheduler.getStatistics().getCompletedStarts(), is(2));
+		}
+	}
+
+	@Test
+	public void cancellationShouldCancelRunningAndPendingStarts() throws Exception {
+		try (StartScheduler scheduler = new StartScheduler(1)) {
+			CompletableFuture<String> running = new CompletableFuture<>();
+			AtomicInteger issued = new AtomicInteger();
+			CompletableFuture<String> first = scheduler.submit("first", () -> running);
+			CompletableFuture<String> second = scheduler.submit("second", () -> {
+				issued.incrementAndGet();
+				return new CompletableFuture<>();
+			});
+
+			second.cancel(false);
+			assertThat(scheduler.getStatistics().getQueuedStarts(), is(0));
+			first.cancel(false);
+			assertThat(running.isCancelled(), is(true));
+			assertThat(issued.get(), is(0));
+			assertThat(scheduler.getStatistics().getActiveStarts(), is(0));
+		}
+	}
+
+	private <T> Supplier<CompletableFuture<T>> async(Callable<T> start) {
+		return () -> CompletableFuture.supplyAsync(() -> {
+			try {
+				return start.call();
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+	}
+}
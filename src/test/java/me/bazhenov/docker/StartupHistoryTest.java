@@ -0,0 +1,46 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static me.bazhenov.docker.StartupHistory.Phase.READY;
+import static me.bazhenov.docker.StartupHistory.Phase.RUN;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class StartupHistoryTest {
+
+	@Test
+	public void durationsShouldBePersistedBetweenRuns() throws IOException {
+		Path file = Files.createTempDirectory("history").resolve("nested/history.properties");
+		StartupHistory first = new StartupHistory(file);
+		assertThat(first.getExpectedTotal("mysql:5.7"), is(-1L));
+		first.record("mysql:5.7", RUN, 400);
+		first.record("mysql:5.7", READY, 8000);
+		first.record("mysql:5.7", READY, 6000);
+		first.save();
+
+		StartupHistory second = new StartupHistory(file);
+		assertThat(second.getExpected("mysql:5.7", RUN), is(400L));
+		assertThat(second.getExpected("mysql:5.7", READY), is(7000L));
+		assertThat(second.getExpectedTotal("mysql:5.7"), is(7400L));
+	}
+
+	@Test
+	public void concurrentRunsShouldBeMerged() throws IOException {
+		Path file = Files.createTempDirectory("history").resolve("history.properties");
+		StartupHistory first = new StartupHistory(file);
+		StartupHistory second = new StartupHistory(file);
+		first.record("redis", READY, 100);
+		second.record("mysql", READY, 5000);
+		first.save();
+		second.save();
+
+		StartupHistory merged = new StartupHistory(file);
+		assertThat(merged.getExpected("redis", READY), is(100L));
+		assertThat(merged.getExpected("mysql", READY), is(5000L));
+	}
+}
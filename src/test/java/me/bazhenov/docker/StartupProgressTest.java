@@ -0,0 +1,33 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class StartupProgressTest {
+
+	@Test
+	public void phasesShouldBeDescribedInOrder() throws InterruptedException {
+		StartupProgress progress = new StartupProgress(new ContainerDefinition("alpine"));
+		assertThat(progress.describePhases(), is("not started"));
+
+		progress.enter(StartupProgress.Phase.IMAGE);
+		progress.enter(StartupProgress.Phase.RUN);
+		Thread.sleep(20);
+		progress.enter(StartupProgress.Phase.READINESS);
+		String phases = progress.describePhases();
+		assertThat(phases, phases.matches("image \\d+ms, run \\d+ms, readiness \\d+ms \\(in progress\\)"), is(true));
+	}
+
+	@Test
+	public void unmatchedLogPatternsShouldBeDescribed() {
+		StartupProgress progress = new StartupProgress(new ContainerDefinition("mysql"));
+		LogMatcher matcher = new LogMatcher(Collections.singletonList(new LogPatternDef("ready for connections", 2)));
+		progress.setLogMatcher(matcher);
+
+		assertThat(progress.describePendingChecks(), is("log lines /ready for connections/ x2 (2 more)"));
+	}
+}
@@ -0,0 +1,116 @@
+package me.bazhenov.docker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.joining;
+
+/**
+ * In-memory transport reporting containers in a given state
+ */
+class StubTransport implements DockerTransport {
+
+	final Map<String, String> states = new ConcurrentHashMap<>();
+	final Map<Integer, Integer> hostPorts = new ConcurrentHashMap<>();
+	final Map<String, String> health = new ConcurrentHashMap<>();
+	final Set<String> missing = ConcurrentHashMap.newKeySet();
+	final List<List<String>> inspectCalls = Collections.synchronizedList(new ArrayList<>());
+	final AtomicInteger execCalls = new AtomicInteger();
+	final List<String> removals = Collections.synchronizedList(new ArrayList<>());
+	volatile long removalDelayMs;
+	volatile String tcpTable = "";
+	volatile boolean inspectBatched = true;
+
+	@Override
+	public boolean isInspectBatched() {
+		return inspectBatched;
+	}
+
+	@Override
+	public String inspect(String... ids) throws IOException {
+		inspectCalls.add(Arrays.asList(ids));
+		for (String id : ids) {
+			if (missing.contains(id))
+				throw new IOException("No such container: " + id);
+		}
+		StringBuilder result = new StringBuilder("[");
+		for (String id : ids) {
+			if (result.length() > 1)
+				result.append(',');
+			result.append("{\"Id\":\"").append(id).append("\",\"State\":{\"Status\":\"").append(states.get(id))
+				.append("\",\"Pid\":0");
+			if (health.containsKey(id))
+				result.append(",\"Health\":{\"Status\":\"").append(health.get(id))
+					.append("\",\"Log\":[{\"ExitCode\":1,\"Output\":\"connection refused\\n\"}]}");
+			result.append("},\"NetworkSettings\":{\"Ports\":{");
+			String ports = hostPorts.entrySet().stream()
+				.map(e -> "\"" + e.getKey() + "/tcp\":[{\"HostIp\":\"0.0.0.0\",\"HostPort\":\"" + e.getValue() + "\"}]")
+				.collect(joining(","));
+			result.append(ports).append("}}}");
+		}
+		return result.append(']').toString();
+	}
+
+	@Override
+	public String exec(String containerId, String... command) {
+		execCalls.incrementAndGet();
+		return tcpTable;
+	}
+
+	@Override
+	public String getImageId(String image) {
+		return "sha256:" + image;
+	}
+
+	@Override
+	public String getLogs(String containerId, int tailLines) {
+		return "";
+	}
+
+	@Override
+	public InputStream followLogs(String containerId) throws IOException {
+		throw new IOException("Not supported");
+	}
+
+	@Override
+	public void pullImage(String image) {
+	}
+
+	@Override
+	public List<String> findContainers(String label, boolean includeStopped) {
+		return emptyList();
+	}
+
+	@Override
+	public boolean isNetworkPresent(String network) {
+		return false;
+	}
+
+	@Override
+	public void createNetwork(String network) {
+	}
+
+	@Override
+	public void removeNetwork(String network) {
+		removals.add("network " + network);
+	}
+
+	@Override
+	public InputStream events(long sinceMillis) throws IOException {
+		throw new IOException("Not supported");
+	}
+
+	@Override
+	public void removeContainers(Collection<String> ids) throws InterruptedException {
+		Thread.sleep(removalDelayMs);
+		removals.add("containers " + String.join(",", ids));
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,339 @@
+package me.bazhenov.docker;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+public class SuiteContainersTest {
+
+	private final AtomicInteger started = new AtomicInteger();
+	private final AtomicInteger flakyFailures = new AtomicInteger();
+	private final List<String> startOrder = Collections.synchronizedList(new ArrayList<>());
+	private final List<String> removed = Collections.synchronizedList(new ArrayList<>());
+	private final List<CompletableFuture<String>> hanging = Collections.synchronizedList(new ArrayList<>());
+	private volatile CompletableFuture<Void> removal;
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+	private SuiteContainers containers;
+
+	@AfterClass
+	public void tearDown() {
+		timer.shutdown();
+	}
+
+	@BeforeMethod
+	public void setUp() {
+		containers = createContainers(false);
+	}
+
+	private SuiteContainers createContainers(boolean deduplicate) {
+		return createContainers(deduplicate, 0);
+	}
+
+	private SuiteContainers createContainers(boolean deduplicate, long startupBudgetMs) {
+		return createContainers(deduplicate, startupBudgetMs, 4);
+	}
+
+	private SuiteContainers createContainers(boolean deduplicate, long startupBudgetMs, int concurrency) {
+		started.set(0);
+		flakyFailures.set(0);
+		startOrder.clear();
+		removed.clear();
+		hanging.clear();
+		removal = CompletableFuture.completedFuture(null);
+		return new SuiteContainers(new Docker("docker", new StubTransport()), deduplicate, concurrency,
+			startupBudgetMs) {
+
+			@Override
+			CompletableFuture<String> startContainer(ContainerDefinition definition, CompletableFuture<Void> launched) {
+				started.incrementAndGet();
+				CompletableFuture<String> result = new CompletableFuture<>();
+				if (definition.getImage().equals("hanging")) {
+					hanging.add(result);
+					return result;
+				}
+				result.whenComplete((cid, e) -> launched.complete(null));
+				if (definition.getImage().equals("unready")) {
+					// Container is launched, but never becomes ready
+					launched.complete(null);
+					hanging.add(result);
+					return result;
+				}
+				if (definition.getImage().equals("broken") ||
+					(definition.getImage().equals("flaky") && flakyFailures.getAndDecrement() > 0)) {
+					timer.schedule(() -> result.completeExceptionally(new IllegalStateException("Broken")), 50, MILLISECONDS);
+					return result;
+				}
+				long delay = definition.getImage().equals("mysql") ? 200 : 0;
+				timer.schedule(() -> {
+					startOrder.add(definition.getImage());
+					result.complete(definition.getImage());
+				}, delay, MILLISECONDS);
+				return result;
+			}
+
+			@Override
+			CompletableFuture<Void> removeContainers(Collection<String> containerIds) {
+				removed.addAll(containerIds);
+				return removal;
+			}
+		};
+	}
+
+	@Test
+	public void sharedContainersShouldBeStartedOncePerSuite() throws InterruptedException {
+		containers.plan("first", singleton(FirstTestCase.class));
+		containers.plan("second", singleton(SecondTestCase.class));
+
+		containers.acquire("first", singleton(FirstTestCase.class));
+		assertThat(started.get(), is(2));
+		containers.release("first");
+		assertThat(removed, contains("first"));
+
+		containers.acquire("second", singleton(SecondTestCase.class));
+		assertThat(started.get(), is(2));
+		containers.release("second");
+		assertThat(removed, containsInAnyOrder("first", "shared"));
+	}
+
+	@Test
+	public void unplannedUsagesShouldBeCounted() throws InterruptedException {
+		containers.plan("first", singleton(FirstTestCase.class));
+
+		containers.acquire("first", singleton(FirstTestCase.class));
+		containers.acquire("unplanned", singleton(SecondTestCase.class));
+		containers.release("first");
+		assertThat(removed, contains("first"));
+
+		containers.release("unplanned");
+		assertThat(removed, containsInAnyOrder("first", "shared"));
+	}
+
+	@Test
+	public void plannedButUnusedNamespacesShouldBeReleased() throws InterruptedException {
+		containers.plan("first", singleton(FirstTestCase.class));
+		containers.plan("second", singleton(SecondTestCase.class));
+
+		containers.acquire("second", Collections.emptySet());
+		containers.acquire("first", singleton(FirstTestCase.class));
+		containers.release("first");
+		assertThat(removed, hasSize(2));
+	}
+
+	@Test
+	public void identicalDefinitionsShouldBeStartedOnceWhenDeduplicationIsEnabled() throws InterruptedException {
+		containers = createContainers(true);
+		containers.acquire("first", singleton(RedisTestCase.class));
+		containers.acquire("second", singleton(AnotherRedisTestCase.class));
+		assertThat(started.get(), is(1));
+
+		containers.release("first");
+		assertThat(removed, empty());
+		containers.release("second");
+		assertThat(removed, contains("redis:5"));
+	}
+
+	@Test
+	public void identicalDefinitionsShouldNotBeSharedByDefault() throws InterruptedException {
+		containers.acquire("first", singleton(RedisTestCase.class));
+		containers.acquire("second", singleton(AnotherRedisTestCase.class));
+		assertThat(started.get(), is(2));
+	}
+
+	@Test
+	public void definitionsWithDifferentDependenciesShouldNotBeShared() throws InterruptedException {
+		containers = createContainers(true);
+		containers.acquire("first", singleton(AppTestCase.class));
+		containers.acquire("second", singleton(DependentAppTestCase.class));
+		// Database is shared, while the app waiting for it is a different container
+		assertThat(started.get(), is(3));
+	}
+
+	@Test
+	public void definitionsInDifferentNetworksShouldNotBeShared() throws InterruptedException {
+		containers = createContainers(true);
+		containers.acquire("first", singleton(RedisTestCase.class));
+		containers.acquire("second", singleton(NetworkRedisTestCase.class));
+		assertThat(started.get(), is(2));
+	}
+
+	@Test
+	public void containerShouldBeStartedAfterItsDependencies() throws InterruptedException {
+		containers.acquire("first", singleton(DependentTestCase.class));
+		assertThat(startOrder, hasSize(4));
+		assertThat(startOrder.indexOf("app"), greaterThan(startOrder.indexOf("mysql")));
+		assertThat(startOrder.indexOf("app"), greaterThan(startOrder.indexOf("shared")));
+		assertThat(startOrder.indexOf("redis"), lessThan(startOrder.indexOf("mysql")));
+	}
+
+	@Test
+	public void startShouldNotHoldCallingThread() throws Exception {
+		CompletableFuture<Void> ready = containers.acquireAsync("first", singleton(DependentTestCase.class));
+		assertThat(ready.isDone(), is(false));
+		ready.get(5, SECONDS);
+		assertThat(startOrder, hasSize(4));
+	}
+
+	@Test
+	public void startFailureShouldCancelRemainingStartsAndRemoveStartedContainers() throws InterruptedException {
+		try {
+			containers.acquire("first", singleton(FailingTestCase.class));
+			throw new AssertionError("Start failure expected");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("Broken"));
+		}
+		assertThat(removed, contains("redis"));
+		assertThat(hanging, hasSize(1));
+		assertThat(hanging.get(0).isCancelled(), is(true));
+
+		// Namespace is rolled back, so it is not released twice
+		containers.release("first");
+		assertThat(removed, contains("redis"));
+	}
+
+	@Test
+	public void failedStartShouldNotDropReferencesOfOtherPlannedContexts() throws InterruptedException {
+		flakyFailures.set(1);
+		containers.plan("a", singleton(FlakyTestCase.class));
+		containers.plan("b", singleton(FlakyTestCase.class));
+		containers.plan("c", singleton(FlakyTestCase.class));
+		try {
+			containers.acquire("a", singleton(FlakyTestCase.class));
+			throw new AssertionError("Start failure expected");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("Broken"));
+		}
+		containers.release("a");
+
+		// Namespace is started again for the contexts planned to use it
+		containers.acquire("b", singleton(FlakyTestCase.class));
+		containers.acquire("c", singleton(FlakyTestCase.class));
+		assertThat(started.get(), is(2));
+
+		containers.release("b");
+		assertThat(removed, empty());
+		containers.release("c");
+		assertThat(removed, contains("flaky"));
+	}
+
+	@Test(timeOut = 5000)
+	public void containerSlowToBecomeReadyShouldNotBlockOtherStarts() throws Exception {
+		containers = createContainers(false, 0, 1);
+		CompletableFuture<Void> slow = containers.acquireAsync("slow", singleton(UnreadyTestCase.class));
+		while (started.get() < 1)
+			Thread.sleep(10);
+
+		containers.acquire("first", singleton(FirstTestCase.class));
+		assertThat(startOrder, containsInAnyOrder("first", "shared"));
+		assertThat(slow.isDone(), is(false));
+	}
+
+	@Test
+	public void startupShouldFailWhenBudgetIsExhausted() throws InterruptedException {
+		containers = createContainers(false, 200);
+		long startedAt = System.currentTimeMillis();
+		try {
+			containers.acquire("first", singleton(HangingTestCase.class));
+			throw new AssertionError("Startup timeout expected");
+		} catch (IllegalStateException e) {
+			assertThat(e.getMessage(), containsString("Startup budget of 200ms is exhausted"));
+			assertThat(e.getMessage(), containsString("Container slow (hanging) is waiting for a start slot"));
+			assertThat(e.getMessage(), not(containsString("Container cache")));
+		}
+		assertThat(System.currentTimeMillis() - startedAt, lessThan(5000L));
+		assertThat(removed, contains("redis"));
+		assertThat(hanging.get(0).isCancelled(), is(true));
+	}
+
+	@Test(timeOut = 5000)
+	public void releaseShouldNotWaitForContainersToBeRemoved() throws InterruptedException {
+		removal = new CompletableFuture<>();
+		containers.plan("first", singleton(FirstTestCase.class));
+		containers.plan("second", singleton(SecondTestCase.class));
+
+		containers.acquire("first", singleton(FirstTestCase.class));
+		containers.release("first");
+		assertThat(removed, contains("first"));
+
+		// Next context starts while containers of the previous one are still being removed
+		containers.acquire("second", singleton(SecondTestCase.class));
+		containers.release("second");
+		assertThat(removed, containsInAnyOrder("first", "shared"));
+		removal.complete(null);
+	}
+
+	@Container(name = "cache", image = "redis")
+	@Container(name = "slow", image = "hanging")
+	static class HangingTestCase {
+	}
+
+	@Container(name = "cache", image = "redis")
+	@Container(name = "db", image = "broken")
+	@Container(name = "slow", image = "hanging")
+	static class FailingTestCase {
+	}
+
+	@Container(name = "slow", image = "unready")
+	static class UnreadyTestCase {
+	}
+
+	@Container(name = "flaky", image = "flaky")
+	static class FlakyTestCase {
+	}
+
+	@ContainersFrom(SharedContainers.class)
+	@Container(name = "app", image = "app", dependsOn = {"db", "shared"})
+	@Container(name = "db", image = "mysql")
+	@Container(name = "cache", image = "redis")
+	static class DependentTestCase {
+	}
+
+	@Container(name = "redis", image = "redis:5", publish = @Port(6379))
+	static class RedisTestCase {
+	}
+
+	@Container(name = "cache", image = "redis:5", publish = @Port(6379))
+	static class AnotherRedisTestCase {
+	}
+
+	@Container(name = "redis", image = "redis:5", publish = @Port(6379), network = "backend")
+	static class NetworkRedisTestCase {
+	}
+
+	@Container(name = "app", image = "app")
+	@Container(name = "db", image = "mysql")
+	static class AppTestCase {
+	}
+
+	@Container(name = "app", image = "app", dependsOn = "db")
+	@Container(name = "db", image = "mysql")
+	static class DependentAppTestCase {
+	}
+
+	@Container(name = "shared", image = "shared")
+	static class SharedContainers {
+	}
+
+	@ContainersFrom(SharedContainers.class)
+	@Container(name = "first", image = "first")
+	static class FirstTestCase {
+	}
+
+	@ContainersFrom(SharedContainers.class)
+	static class SecondTestCase {
+	}
+}